@@ -0,0 +1,80 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Prints the change between two JMH CSV result files, one line per benchmark
+// and parameter set, including the gc.alloc.rate.norm secondary results:
+//
+//   java -cp target/benchmarks.jar com.interpreters.lox.Compare before.csv after.csv
+public final class Compare {
+    private Compare() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: Compare before.csv after.csv");
+            System.exit(64);
+        }
+        Map<String, String[]> before = read(Path.of(args[0]));
+        Map<String, String[]> after = read(Path.of(args[1]));
+
+        System.out.printf("%-64s %14s %22s %9s%n", "Benchmark", "Before", "After", "Change");
+        for (Map.Entry<String, String[]> entry : after.entrySet()) {
+            String[] old = before.get(entry.getKey());
+            String[] now = entry.getValue();
+            if (old == null) {
+                System.out.printf("%-64s %14s %22s %9s%n", entry.getKey(), "-", now[0] + " " + now[1], "new");
+                continue;
+            }
+            double from = Double.parseDouble(old[0]);
+            double to = Double.parseDouble(now[0]);
+            String change = from == 0 ? "-" : String.format("%+.1f%%", (to - from) / from * 100);
+            System.out.printf("%-64s %14s %22s %9s%n", entry.getKey(),
+                    String.format("%.3f", from), String.format("%.3f", to) + " " + now[1], change);
+        }
+    }
+
+    // benchmark name plus its parameters -> {score, unit}
+    private static Map<String, String[]> read(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+        List<String> header = fields(lines.get(0));
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+
+        Map<String, String[]> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> row = fields(line);
+            StringBuilder key = new StringBuilder(row.get(0).replace("com.interpreters.lox.", ""));
+            for (int i = unit + 1; i < row.size(); i++) {
+                if (!row.get(i).isEmpty()) key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(row.get(i));
+            }
+            results.put(key.toString(), new String[]{row.get(score), row.get(unit)});
+        }
+        return results;
+    }
+
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
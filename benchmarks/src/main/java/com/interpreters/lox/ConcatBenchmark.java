@@ -0,0 +1,54 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Building a string of `size` characters with `s = s + piece` in a loop on the
+// tree-walker, 100 characters at a time, then comparing it once so the whole
+// string is materialized. Copying s on every + makes this quadratic.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcatBenchmark {
+    private static final String PIECE = "0123456789".repeat(10);
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Corpus.resolve(String.format("""
+                var piece = "%s";
+                var s = "";
+                for (var i = 0; i < %d; i = i + 1) s = s + piece;
+                var result = s == piece;
+                """, PIECE, size / PIECE.length()));
+        interpreter = new Interpreter();
+        // one checked run so a broken program fails the trial instead of timing an error
+        interpreter.interpret(statements);
+        if (Lox.hasError) throw new IllegalStateException("Building " + size + " characters failed.");
+    }
+
+    @Benchmark
+    public void build() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,45 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The Lox programs under resources/corpus. Each one leaves its answer in a
+// global named result and prints nothing, so runs measure the interpreter
+// rather than stdout.
+final class Corpus {
+    private Corpus() {}
+
+    static String load(String program) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + program + ".lox")) {
+            if (in == null) throw new IllegalArgumentException("No corpus program " + program + ".");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the program repeated so front-end benchmarks see a large source
+    static String load(String program, int copies) {
+        return load(program).repeat(copies);
+    }
+
+    static TokenStream scan(String source) {
+        return new Scanner(source).scan();
+    }
+
+    static List<Stmt> parse(String source) {
+        List<Stmt> statements = new Parser(scan(source)).parse();
+        if (Lox.hasError) throw new IllegalStateException("Corpus program failed to parse.");
+        return statements;
+    }
+
+    static List<Stmt> resolve(String source) {
+        List<Stmt> statements = parse(source);
+        new Resolver().resolve(statements);
+        if (Lox.hasError) throw new IllegalStateException("Corpus program failed to resolve.");
+        return statements;
+    }
+}
@@ -0,0 +1,51 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A batch of executions of a corpus program run at once through LoxEngine.runAll,
+// each on its own virtual thread, from source to result. Executions share
+// nothing, so while the batch is no larger than the number of cores its time
+// should stay close to that of a single execution.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "closures"})
+    public String program;
+
+    @Param({"1", "2", "4", "8"})
+    public int executions;
+
+    private final LoxEngine engine = new LoxEngine();
+    private List<String> sources;
+
+    @Setup
+    public void setup() {
+        sources = Collections.nCopies(executions, Corpus.load(program));
+        // one checked run so a broken program fails the trial instead of timing an error
+        LoxEngine.Result result = engine.run(Corpus.load(program));
+        if (!result.succeeded()) throw new IllegalStateException(program + " failed: " + result.errors());
+    }
+
+    @Benchmark
+    public List<LoxEngine.Result> runAll() {
+        return engine.runAll(sources);
+    }
+}
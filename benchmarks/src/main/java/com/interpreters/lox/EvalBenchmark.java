@@ -0,0 +1,56 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// A short rule evaluated against bindings through LoxEngine, the way a service
+// would call it per request: compiled every time, or compiled once and
+// evaluated from the handle.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+    private static final String RULE = """
+            fun discount(total) {
+              if (member) total = total * 0.9;
+              if (total > 100) total = total - 5;
+              return total;
+            }
+            var result = discount(price * quantity);
+            """;
+    private static final Map<String, Object> BINDINGS = Map.of("price", 12.5, "quantity", 10, "member", true);
+
+    private final LoxEngine engine = new LoxEngine();
+    private LoxEngine.CompiledScript script;
+
+    @Setup
+    public void setup() {
+        script = engine.compile(RULE);
+        LoxEngine.Result result = engine.eval(script, BINDINGS);
+        if (!result.get("result").equals(107.5)) throw new IllegalStateException("Rule failed: " + result);
+    }
+
+    @Benchmark
+    public LoxEngine.Result compileAndEval() {
+        return engine.eval(engine.compile(RULE), BINDINGS);
+    }
+
+    @Benchmark
+    public LoxEngine.Result eval() {
+        return engine.eval(script, BINDINGS);
+    }
+}
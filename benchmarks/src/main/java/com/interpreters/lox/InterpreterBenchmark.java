@@ -0,0 +1,46 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Executing each corpus program on the tree-walker. The AST is prepared once,
+// so this measures the interpreter alone, specialized nodes included.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "closures", "returns"})
+    public String program;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        interpreter = new Interpreter();
+        statements = Corpus.resolve(Corpus.load(program));
+        // one checked run so a broken program fails the trial instead of timing an error
+        interpreter.interpret(statements);
+        if (Lox.hasError) throw new IllegalStateException(program + " failed at runtime.");
+    }
+
+    @Benchmark
+    public void interpret() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,53 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// The cost of running under sandbox limits. The limits are set far above what
+// any corpus program uses, so "limited" pays for the counting and never stops;
+// its score against "none" is the overhead.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimitsBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "closures"})
+    public String program;
+
+    @Param({"none", "limited"})
+    public String limits;
+
+    private LoxEngine engine;
+    private LoxEngine.CompiledScript script;
+
+    @Setup
+    public void setup() {
+        engine = new LoxEngine();
+        if (limits.equals("limited")) {
+            engine = engine.withLimits(new LoxEngine.Limits(Long.MAX_VALUE, Long.MAX_VALUE, Duration.ofHours(1)));
+        }
+        script = engine.compile(Corpus.load(program));
+        // one checked run so a broken program fails the trial instead of timing an error
+        LoxEngine.Result result = engine.eval(script);
+        if (!result.succeeded()) throw new IllegalStateException(program + " failed: " + result.errors());
+    }
+
+    @Benchmark
+    public LoxEngine.Result eval() {
+        return engine.eval(script);
+    }
+}
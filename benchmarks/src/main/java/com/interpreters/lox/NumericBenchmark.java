@@ -0,0 +1,72 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Number-heavy scripts on the tree-walker. Run with -prof gc and compare
+// gc.alloc.rate.norm: locals and arithmetic stay unboxed, so the loop should
+// allocate per iteration only the block's environment, not per operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumericBenchmark {
+    private static final String LOOP = """
+            fun count(n) {
+              var sum = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                sum = sum + i * 2 - i;
+              }
+              return sum;
+            }
+            var result = count(100000);
+            """;
+
+    private static final String FIB = """
+            fun fib(n) {
+              if (n < 2) return n;
+              return fib(n - 1) + fib(n - 2);
+            }
+            var result = fib(20);
+            """;
+
+    private Interpreter interpreter;
+    private List<Stmt> loop;
+    private List<Stmt> fib;
+
+    @Setup
+    public void setup() {
+        interpreter = new Interpreter();
+        loop = parse(LOOP);
+        fib = parse(FIB);
+    }
+
+    private static List<Stmt> parse(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scan()).parse();
+        new Resolver().resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public void loop() {
+        interpreter.interpret(loop);
+    }
+
+    @Benchmark
+    public void fib() {
+        interpreter.interpret(fib);
+    }
+}
@@ -0,0 +1,43 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parsing pre-scanned tokens of each corpus program repeated into a large source.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "closures"})
+    public String program;
+
+    @Param({"100"})
+    public int copies;
+
+    private TokenStream tokens;
+
+    @Setup
+    public void setup() {
+        tokens = Corpus.scan(Corpus.load(program, copies));
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+}
@@ -0,0 +1,76 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A batch of executions at once through LoxEngine.runAll, all using the classes,
+// instances and closures of one prelude. Each makes and updates instances of
+// the prelude's class and reads its shared instance; the setup first checks
+// that the executions' writes stay their own and that writes to the prelude's
+// objects are refused, so a leak fails the trial instead of being timed.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreludeBenchmark {
+    private static final String PRELUDE = """
+            class Counter {
+              init(start) { this.n = start; }
+              bump() { this.n = this.n + 1; return this.n; }
+            }
+            var config = Counter(100);
+            fun counter() {
+              var n = 0;
+              fun next() { n = n + 1; return n; }
+              return next;
+            }
+            var ticket = counter();
+            """;
+    private static final String SCRIPT = """
+            var mine = Counter(config.n);
+            for (var i = 0; i < 20000; i = i + 1) mine.bump();
+            var result = mine.n;
+            """;
+
+    @Param({"1", "2", "4", "8"})
+    public int executions;
+
+    private final LoxEngine engine = new LoxEngine(PRELUDE);
+    private List<String> sources;
+
+    @Setup
+    public void setup() {
+        sources = Collections.nCopies(executions, SCRIPT);
+        for (LoxEngine.Result result : engine.runAll(Collections.nCopies(8, SCRIPT))) {
+            if (!result.get("result").equals(20100.0)) throw new IllegalStateException("Leaked: " + result);
+        }
+        List<String> writes = List.of("config.n = 0;", "config.bump();", "ticket();", "config = nil; print config;");
+        List<LoxEngine.Result> results = engine.runAll(writes);
+        for (int i = 0; i < 3; i++) {
+            if (results.get(i).succeeded()) throw new IllegalStateException("Not refused: " + writes.get(i));
+        }
+        // the execution's own global, the prelude's config is still there for the rest
+        if (!results.get(3).output().equals("nil\n")) throw new IllegalStateException("Global: " + results.get(3));
+        if (!engine.run("print config.n;").output().equals("100\n")) throw new IllegalStateException("Prelude changed.");
+    }
+
+    @Benchmark
+    public List<LoxEngine.Result> runAll() {
+        return engine.runAll(sources);
+    }
+}
@@ -0,0 +1,64 @@
+package com.interpreters.lox;
+
+import com.interpreters.lox.vm.VM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Call throughput at a given recursion depth: the tree-walker, which nests
+// several Java frames per Lox call, against the VM, which keeps its frames in
+// a heap array. Every run makes 100000 calls, as chains of depth calls. The VM
+// compiles the script on each run, a few microseconds next to the calls. The
+// tree-walker runs out of Java stack a few hundred calls deep on a JMH thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecursionBenchmark {
+    private static final int CALLS = 100_000;
+
+    @Param({"tree", "vm"})
+    public String engine;
+
+    @Param({"10", "200"})
+    public int depth;
+
+    private Interpreter interpreter;
+    private VM vm;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Corpus.resolve(String.format("""
+                fun down(n) { if (n < 1) return 0; return down(n - 1) + 1; }
+                var result = 0;
+                for (var i = 0; i < %d; i = i + 1) result = result + down(%d);
+                """, CALLS / depth, depth - 1));
+        if (engine.equals("vm")) vm = new VM();
+        else interpreter = new Interpreter();
+        // one checked run so a broken program fails the trial instead of timing an error
+        if (run() == VM.InterpretResult.RUNTIME_ERROR || Lox.hasError) {
+            throw new IllegalStateException("depth " + depth + " failed on " + engine + ".");
+        }
+    }
+
+    @Benchmark
+    public VM.InterpretResult run() {
+        if (vm != null) return vm.interpret(statements);
+        interpreter.interpret(statements);
+        return VM.InterpretResult.OK;
+    }
+}
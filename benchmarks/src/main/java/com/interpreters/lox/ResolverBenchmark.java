@@ -0,0 +1,45 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Resolving pre-parsed statements. Resolution only rewrites the same depth and
+// slot fields, so the tree can be resolved again on every invocation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "closures"})
+    public String program;
+
+    @Param({"100"})
+    public int copies;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Corpus.parse(Corpus.load(program, copies));
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,85 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Getting a script file to resolved statements. A cold start reads, scans,
+// parses and resolves the source. A warm start hashes the file and loads the
+// tree from its script cache entry, as Lox.runFile does for an unchanged
+// script. Startup is a first run in a fresh JVM, so each fork times a single
+// call with no warmup. A warm fork builds its entry during setup, so the tree
+// classes are already loaded when it is timed.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    @Param({"fib", "loops", "strings", "oo", "closures"})
+    public String program;
+
+    @Param({"100"})
+    public int copies;
+
+    @Param({"cold", "warm"})
+    public String start;
+
+    private Path directory;
+    private Path script;
+    private ScriptCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("lox-startup");
+        script = directory.resolve(program + ".lox");
+        Files.writeString(script, Corpus.load(program, copies), CHARSET);
+        cache = new ScriptCache(directory.resolve("cache"));
+        // a cold fork must not have run the front end before it is timed
+        if (start.equals("cold")) return;
+
+        ScriptCache.Entry entry = cache.create(ScriptCache.key(script, CHARSET));
+        for (Stmt statement : Corpus.resolve(Files.readString(script, CHARSET))) entry.write(statement);
+        entry.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public List<Stmt> load() throws IOException {
+        if (start.equals("cold")) return Corpus.resolve(Files.readString(script, CHARSET));
+
+        List<Stmt> statements = new ArrayList<>();
+        AstReader reader = cache.open(ScriptCache.key(script, CHARSET));
+        while (reader.hasNext()) statements.add(reader.next());
+        return statements;
+    }
+}
@@ -43,6 +43,11 @@ public class AstPrinter implements  Expr.Visitor<String> {
         return null;
     }
 
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
     @Override
     public String visitThisExpr(Expr.This expr) {
         return null;
@@ -0,0 +1,199 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.interpreters.lox.AstWriter.*;
+
+// Loads the top-level statements AstWriter wrote, one at a time, ready to
+// run: the resolver's depths and slots come back with the tree. Reads straight
+// from a buffer, usually the mapped cache entry.
+class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final List<String> strings = new ArrayList<>();
+    private boolean done = false;
+
+    AstReader(ByteBuffer in) throws IOException {
+        this.in = in;
+        if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != FORMAT
+                || in.getInt(in.limit() - 4) != TRAILER) {
+            throw new IOException("Not a complete compiled script of this format.");
+        }
+    }
+
+    boolean hasNext() throws IOException {
+        if (done) return false;
+        if (in.get() == MORE) return true;
+        done = true;
+        return false;
+    }
+
+    Stmt next() throws IOException {
+        try {
+            return statement();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated compiled script.", e);
+        } catch (ClassCastException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt compiled script.", e);
+        }
+    }
+
+    // STATEMENTS
+
+    // a statement where the grammar has one for sure, so a null read is corruption
+    private Stmt statement() throws IOException {
+        Stmt stmt = stmt();
+        if (stmt == null) throw new IOException("Missing statement.");
+        return stmt;
+    }
+
+    private Stmt stmt() throws IOException {
+        byte tag = in.get();
+        return switch (tag) {
+            case 0 -> null;
+            case EXPRESSION -> new Stmt.Expression(expression());
+            case PRINT -> new Stmt.Print(expression());
+            case VAR -> new Stmt.Var(token(), expr());
+            case BLOCK -> new Stmt.Block(statements());
+            case IF -> new Stmt.If(expression(), statement(), stmt());
+            case WHILE -> new Stmt.While(expression(), statement());
+            case FUNCTION -> function();
+            case RETURN -> {
+                Stmt.Return stmt = new Stmt.Return(token(), expr());
+                stmt.tail = integer() != 0;
+                // the Resolver only marks returns of calls
+                if (stmt.tail && !(stmt.value instanceof Expr.Call)) throw new IOException("Tail return of no call.");
+                yield stmt;
+            }
+            case CLASS -> {
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable) expr();
+                int count = integer();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) methods.add((Stmt.Function) statement());
+                yield new Stmt.Class(name, superclass, methods);
+            }
+            default -> throw new IOException("Unknown statement tag " + tag + ".");
+        };
+    }
+
+    private Stmt.Function function() throws IOException {
+        Token name = token();
+        int count = integer();
+        List<Token> parameters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) parameters.add(token());
+        return new Stmt.Function(name, parameters, statements());
+    }
+
+    private List<Stmt> statements() throws IOException {
+        int count = integer();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) statements.add(statement());
+        return statements;
+    }
+
+    // EXPRESSIONS
+
+    private Expr expression() throws IOException {
+        Expr expr = expr();
+        if (expr == null) throw new IOException("Missing expression.");
+        return expr;
+    }
+
+    private Expr expr() throws IOException {
+        byte tag = in.get();
+        return switch (tag) {
+            case 0 -> null;
+            case BINARY -> new Expr.Binary(expression(), token(), expression());
+            case CALL -> {
+                Expr callee = expression();
+                Token paren = token();
+                int count = integer();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) arguments.add(expression());
+                yield new Expr.Call(callee, paren, arguments);
+            }
+            case GROUPING -> new Expr.Grouping(expression());
+            case GET -> new Expr.Get(expression(), token());
+            case SET -> new Expr.Set(expression(), token(), expression());
+            case SUPER -> {
+                Expr.Super expr = new Expr.Super(token(), token());
+                expr.depth = integer();
+                expr.thisDepth = integer();
+                yield expr;
+            }
+            case THIS -> {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = integer();
+                expr.slot = integer();
+                yield expr;
+            }
+            case LITERAL -> new Expr.Literal(value());
+            case LOGICAL -> new Expr.Logical(expression(), token(), expression());
+            case UNARY -> new Expr.Unary(token(), expression());
+            case TERNARY -> new Expr.Ternary(expression(), token(), expression(), token(), expression());
+            case VARIABLE -> {
+                Expr.Variable expr = new Expr.Variable(token());
+                expr.depth = integer();
+                expr.slot = integer();
+                yield expr;
+            }
+            case ASSIGN -> {
+                Expr.Assign expr = new Expr.Assign(token(), expression());
+                expr.depth = integer();
+                expr.slot = integer();
+                yield expr;
+            }
+            default -> throw new IOException("Unknown expression tag " + tag + ".");
+        };
+    }
+
+    // FIELDS
+
+    private Token token() throws IOException {
+        TokenType type = TYPES[in.get()];
+        String lexeme = string();
+        Object literal = value();
+        int line = integer();
+        int start = integer();
+        int end = start + integer();
+        return new Token(type, lexeme, literal, line, start, end);
+    }
+
+    private int integer() throws IOException {
+        int bits = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = Byte.toUnsignedInt(in.get());
+            bits |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    private String string() throws IOException {
+        int index = integer();
+        if (index != NEW_STRING) return strings.get(index);
+        char[] chars = new char[integer()];
+        for (int i = 0; i < chars.length; i++) chars[i] = in.getChar();
+        String value = new String(chars);
+        strings.add(value);
+        return value;
+    }
+
+    private Object value() throws IOException {
+        byte tag = in.get();
+        return switch (tag) {
+            case NIL -> null;
+            case FALSE -> false;
+            case TRUE -> true;
+            case NUMBER -> in.getDouble();
+            case STRING -> string();
+            default -> throw new IOException("Unknown value tag " + tag + ".");
+        };
+    }
+}
@@ -0,0 +1,352 @@
+package com.interpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes resolved top-level statements in the binary form AstReader loads.
+// Every node is a tag byte followed by its fields, with the resolver's
+// depth and slot numbers included. Runtime state such as specialized binary
+// nodes, inline caches and JIT code is not written. Integers are varints,
+// and strings are written once and referred to by index afterwards.
+//
+//   file  := MAGIC FORMAT (MORE stmt)* END TRAILER
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4c4f5841; // "LOXA"
+    static final int FORMAT = 3;
+    static final int TRAILER = 0x454e4421; // "END!"
+
+    static final byte END = 0, MORE = 1;
+
+    // statements, 0 is a missing statement
+    static final byte EXPRESSION = 1, PRINT = 2, VAR = 3, BLOCK = 4, IF = 5,
+            WHILE = 6, FUNCTION = 7, RETURN = 8, CLASS = 9;
+
+    // expressions, 0 is a missing expression
+    static final byte BINARY = 1, CALL = 2, GROUPING = 3, GET = 4, SET = 5, SUPER = 6,
+            THIS = 7, LITERAL = 8, LOGICAL = 9, UNARY = 10, TERNARY = 11, VARIABLE = 12,
+            ASSIGN = 13;
+
+    // literal values
+    static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    // a string seen before is written as its index, a new one as -1 and its chars
+    static final int NEW_STRING = -1;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    AstWriter(OutputStream stream) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+    }
+
+    void write(Stmt statement) throws IOException {
+        out.writeByte(MORE);
+        try {
+            stmt(statement);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // marks the script complete, a file without the trailer is never loaded
+    void finish() throws IOException {
+        out.writeByte(END);
+        out.writeInt(TRAILER);
+        out.flush();
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+
+    // FIELDS
+    // The visitors cannot throw IOException, so it travels out unchecked.
+
+    private void stmt(Stmt stmt) {
+        if (stmt == null) {
+            tag(0);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void expr(Expr expr) {
+        if (expr == null) {
+            tag(0);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void statements(List<? extends Stmt> statements) {
+        integer(statements.size());
+        for (Stmt statement : statements) stmt(statement);
+    }
+
+    private void tag(int tag) {
+        try {
+            out.writeByte(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // zigzag varint: lines, offsets and the -1 of an unresolved depth stay a byte or two
+    private void integer(int value) {
+        try {
+            int bits = (value << 1) ^ (value >> 31);
+            while ((bits & ~0x7f) != 0) {
+                out.writeByte((bits & 0x7f) | 0x80);
+                bits >>>= 7;
+            }
+            out.writeByte(bits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void string(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            integer(index);
+            return;
+        }
+        strings.put(value, strings.size());
+        integer(NEW_STRING);
+        integer(value.length());
+        try {
+            out.writeChars(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void value(Object value) {
+        try {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            } else {
+                out.writeByte(STRING);
+                string((String) value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void token(Token token) {
+        tag(token.type.ordinal());
+        string(token.lexeme);
+        value(token.literal);
+        integer(token.line);
+        integer(token.startOffset);
+        integer(token.endOffset - token.startOffset);
+    }
+
+    // STATEMENTS
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        token(stmt.name);
+        expr(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        statements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        expr(stmt.condition);
+        stmt(stmt.thenBranch);
+        stmt(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        token(stmt.functionName);
+        integer(stmt.parameters.size());
+        for (Token parameter : stmt.parameters) token(parameter);
+        statements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        token(stmt.keyword);
+        expr(stmt.value);
+        integer(stmt.tail ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        token(stmt.name);
+        expr(stmt.superclass);
+        statements(stmt.methods);
+        return null;
+    }
+
+    // EXPRESSIONS
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        expr(expr.callee);
+        token(expr.paren);
+        integer(expr.arguments.size());
+        for (Expr argument : expr.arguments) expr(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        expr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        tag(GET);
+        expr(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        tag(SET);
+        expr(expr.object);
+        token(expr.name);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        integer(expr.depth);
+        integer(expr.thisDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        token(expr.keyword);
+        integer(expr.depth);
+        integer(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        value(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        tag(TERNARY);
+        expr(expr.expression);
+        token(expr.question_mark);
+        expr(expr.truth_side);
+        token(expr.colon_operator);
+        expr(expr.false_side);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        token(expr.name);
+        integer(expr.depth);
+        integer(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        token(expr.name);
+        expr(expr.right);
+        integer(expr.depth);
+        integer(expr.slot);
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package com.interpreters.lox;
+
+// Self-specializing implementation of a binary operator. Every Expr.Binary
+// starts out UNINITIALIZED and on its first execution rewrites itself to a node
+// specialized for the operand types it saw (number-number arithmetic, string
+// concatenation). When a specialized node's guard fails it deoptimizes the
+// expression to the generic node for its operator, which never rewrites again.
+// Nodes are stateless, so the rewrite is a single field write and racing
+// rewrites from several threads are harmless.
+abstract class BinaryNode {
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    static final BinaryNode UNINITIALIZED = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return rewrite(expr, specialize(expr.operator.type, left, right), left, right);
+        }
+    };
+
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            NumberNode node = number(operator);
+            if (node != null) return node;
+        }
+        if (operator == TokenType.PLUS && left instanceof CharSequence && right instanceof CharSequence) {
+            return STRING_CONCAT;
+        }
+        return generic(operator);
+    }
+
+    private static Object rewrite(Expr.Binary expr, BinaryNode node, Object left, Object right) {
+        expr.node = node;
+        return node.execute(expr, left, right);
+    }
+
+    static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        return rewrite(expr, generic(expr.operator.type), left, right);
+    }
+
+    // NUMBERS
+
+    abstract static class NumberNode extends BinaryNode {
+        abstract Object apply(double left, double right);
+
+        @Override
+        final Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return apply(a, b);
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    // arithmetic also has an unboxed form for Interpreter.evaluateNumber
+    abstract static class ArithmeticNode extends NumberNode {
+        abstract double compute(double left, double right);
+
+        @Override
+        final Object apply(double left, double right) {
+            return compute(left, right);
+        }
+    }
+
+    private static final ArithmeticNode ADD = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) { return left + right; }
+    };
+
+    private static final ArithmeticNode SUBTRACT = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) { return left - right; }
+    };
+
+    private static final ArithmeticNode MULTIPLY = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) { return left * right; }
+    };
+
+    private static final ArithmeticNode DIVIDE = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) { return left / right; }
+    };
+
+    private static final ArithmeticNode MODULO = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) { return left % right; }
+    };
+
+    private static final NumberNode GREATER = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return left > right; }
+    };
+
+    private static final NumberNode GREATER_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return left >= right; }
+    };
+
+    private static final NumberNode LESS = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return left < right; }
+    };
+
+    private static final NumberNode LESS_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return left <= right; }
+    };
+
+    // compare rather than == so NaN and -0.0 behave like isEqual's Double.equals
+    private static final NumberNode EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return Double.compare(left, right) == 0; }
+    };
+
+    private static final NumberNode NOT_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) { return Double.compare(left, right) != 0; }
+    };
+
+    private static NumberNode number(TokenType operator) {
+        return switch (operator) {
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            case MODULUS -> MODULO;
+            case GREATER -> GREATER;
+            case GREATER_EQUAL -> GREATER_EQUAL;
+            case LESS -> LESS;
+            case LESS_EQUAL -> LESS_EQUAL;
+            case EQUAL_EQUAL -> EQUAL;
+            case BANG_EQUAL -> NOT_EQUAL;
+            default -> null;
+        };
+    }
+
+    // STRINGS
+
+    private static final BinaryNode STRING_CONCAT = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof CharSequence a && right instanceof CharSequence b) return Rope.concat(a, b);
+            return deoptimize(expr, left, right);
+        }
+    };
+
+    // GENERIC
+
+    private static final BinaryNode GENERIC_ADD = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.handlePlusOperator(expr.operator, left, right);
+        }
+    };
+
+    private static final BinaryNode GENERIC_EQUAL = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    };
+
+    private static final BinaryNode GENERIC_NOT_EQUAL = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    };
+
+    // numeric-only operators keep their type check and runtime error
+    private static final class CheckedNumber extends BinaryNode {
+        private final NumberNode number;
+
+        CheckedNumber(NumberNode number) {
+            this.number = number;
+        }
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            Interpreter.checkNumberOperands(expr.operator, left, right);
+            return number.apply((Double) left, (Double) right);
+        }
+    }
+
+    private static final BinaryNode GENERIC_SUBTRACT = new CheckedNumber(SUBTRACT);
+    private static final BinaryNode GENERIC_MULTIPLY = new CheckedNumber(MULTIPLY);
+    private static final BinaryNode GENERIC_DIVIDE = new CheckedNumber(DIVIDE);
+    private static final BinaryNode GENERIC_MODULO = new CheckedNumber(MODULO);
+    private static final BinaryNode GENERIC_GREATER = new CheckedNumber(GREATER);
+    private static final BinaryNode GENERIC_GREATER_EQUAL = new CheckedNumber(GREATER_EQUAL);
+    private static final BinaryNode GENERIC_LESS = new CheckedNumber(LESS);
+    private static final BinaryNode GENERIC_LESS_EQUAL = new CheckedNumber(LESS_EQUAL);
+
+    private static final BinaryNode UNKNOWN = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return null;
+        }
+    };
+
+    static BinaryNode generic(TokenType operator) {
+        return switch (operator) {
+            case PLUS -> GENERIC_ADD;
+            case MINUS -> GENERIC_SUBTRACT;
+            case STAR -> GENERIC_MULTIPLY;
+            case SLASH -> GENERIC_DIVIDE;
+            case MODULUS -> GENERIC_MODULO;
+            case GREATER -> GENERIC_GREATER;
+            case GREATER_EQUAL -> GENERIC_GREATER_EQUAL;
+            case LESS -> GENERIC_LESS;
+            case LESS_EQUAL -> GENERIC_LESS_EQUAL;
+            case EQUAL_EQUAL -> GENERIC_EQUAL;
+            case BANG_EQUAL -> GENERIC_NOT_EQUAL;
+            default -> UNKNOWN;
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.interpreters.lox;
+
+// What a sandboxed execution has left to spend. Every loop iteration and call
+// is a step, and instances, fields and strings are charged an estimate of their
+// size in bytes. Running out of any of them is a runtime error, which ends the
+// script. Steps are handed out in batches so that a step is one decrement; the
+// clock is read, and the step limit checked, when a batch runs out.
+final class Budget {
+    private static final int BATCH = 1 << 10;
+    // estimated bytes: object headers and references, and a string's chars
+    private static final long INSTANCE = 32, FIELD = 8, STRING = 40;
+
+    // steps left after the current batch, and left in it
+    private long steps;
+    private int batch;
+    private long bytes;
+    private final long deadline;
+
+    Budget(LoxEngine.Limits limits) {
+        this.batch = (int) Math.min(BATCH, limits.steps());
+        this.steps = limits.steps() - batch;
+        this.bytes = limits.memory();
+        long timeout = limits.timeout() == null ? Long.MAX_VALUE : limits.timeout().toNanos();
+        this.deadline = System.nanoTime() + timeout;
+    }
+
+    void step(Token token) {
+        if (--batch < 0) nextBatch(token);
+    }
+
+    private void nextBatch(Token token) {
+        if (System.nanoTime() - deadline > 0) throw new RuntimeError(token, "Time limit exceeded.");
+        if (steps == 0) throw new RuntimeError(token, "Step limit exceeded.");
+        batch = (int) Math.min(BATCH, steps);
+        steps -= batch;
+        // this step is the first of the batch
+        batch--;
+    }
+
+    void instance(Token token, LoxClass klass) {
+        allocate(token, INSTANCE + FIELD * klass.fieldCount);
+    }
+
+    void field(Token token) {
+        allocate(token, FIELD);
+    }
+
+    // A rope is charged its full length too, that's what flattening it costs.
+    // Charging just the node would let `s = s + s` double past any limit.
+    void string(Token token, CharSequence string) {
+        allocate(token, STRING + 2L * string.length());
+    }
+
+    private void allocate(Token token, long size) {
+        bytes -= size;
+        if (bytes < 0) throw new RuntimeError(token, "Memory limit exceeded.");
+    }
+}
@@ -0,0 +1,407 @@
+package com.interpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a class file assembler for the JIT. Classes are emitted as
+// version 49 so the verifier infers types itself and no StackMapTable is needed.
+final class ClassFileWriter {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // thrown when generated code exceeds what the class file format can encode
+    static final class TooLarge extends RuntimeException {
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        for (String interfaceName : interfaceNames) interfaces.add(classRef(interfaceName));
+    }
+
+    // CONSTANT POOL
+
+    private int entry(String key, IoAction writer) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int assigned = poolCount++;
+        if (assigned > 0xffff) throw new TooLarge("Constant pool overflow.");
+        poolIndex.put(key, assigned);
+        return assigned;
+    }
+
+    private interface IoAction {
+        void write() throws IOException;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, () -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int intConstant(int value) {
+        return entry("I" + value, () -> {
+            poolOut.writeByte(3);
+            poolOut.writeInt(value);
+        });
+    }
+
+    int stringConstant(String value) {
+        int utf = utf8(value);
+        return entry("S" + value, () -> {
+            poolOut.writeByte(8);
+            poolOut.writeShort(utf);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, () -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(name);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return entry("N" + name + ":" + descriptor, () -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(n);
+            poolOut.writeShort(d);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + ":" + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(c);
+            poolOut.writeShort(nt);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    // MEMBERS
+
+    void field(String name, String descriptor) {
+        field(ACC_PRIVATE | ACC_FINAL, name, descriptor);
+    }
+
+    // set once by <clinit>, which HotSpot then treats as a constant
+    void staticField(String name, String descriptor) {
+        field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, name, descriptor);
+    }
+
+    private void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    Code method(String name, String descriptor, int parameterSlots) {
+        return new Code(ACC_PUBLIC, name, descriptor, parameterSlots);
+    }
+
+    Code staticMethod(String name, String descriptor, int parameterSlots) {
+        return new Code(ACC_STATIC, name, descriptor, parameterSlots);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int i : interfaces) out.writeShort(i);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static final class Label {
+        private int position = -1;
+        // operand stack depth on entry, -1 until a jump or mark establishes it
+        private int stack = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    // Bytecode for one method. Tracks the operand stack depth so max_stack can be emitted.
+    final class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int access, String name, String descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = parameterSlots;
+        }
+
+        private void u1(int b) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void u2(int s) {
+            u1(s >> 8);
+            u1(s);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        void op(int opcode, int stackDelta) {
+            u1(opcode);
+            adjust(stackDelta);
+        }
+
+        void loadInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                u2(value);
+            } else {
+                op(LDC_W, 1);
+                u2(intConstant(value));
+            }
+        }
+
+        void loadString(String value) {
+            op(LDC_W, 1);
+            u2(stringConstant(value));
+        }
+
+        // the Class object for internalName, which version 49 can ldc
+        void loadClass(String internalName) {
+            op(LDC_W, 1);
+            u2(classRef(internalName));
+        }
+
+        private void local(int opcode, int index, int stackDelta) {
+            if (index > 0xff) {
+                op(WIDE, 0);
+                u1(opcode);
+                u2(index);
+            } else {
+                op(opcode, 0);
+                u1(index);
+            }
+            adjust(stackDelta);
+            maxLocals = Math.max(maxLocals, index + 1);
+        }
+
+        void aload(int index) {
+            local(ALOAD, index, 1);
+        }
+
+        void astore(int index) {
+            local(ASTORE, index, -1);
+        }
+
+        void field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            int delta = switch (opcode) {
+                case GETSTATIC -> 1;
+                case GETFIELD -> 0;
+                case PUTSTATIC -> -1;
+                case PUTFIELD -> -2;
+                default -> throw new IllegalArgumentException("Not a field instruction.");
+            };
+            op(opcode, delta);
+            u2(fieldRef(owner, fieldName, fieldDescriptor));
+        }
+
+        void invoke(int opcode, String owner, String methodName, String methodDescriptor) {
+            int delta = returnSlots(methodDescriptor) - argumentSlots(methodDescriptor);
+            if (opcode != INVOKESTATIC) delta -= 1;
+            op(opcode, delta);
+            u2(methodRef(owner, methodName, methodDescriptor));
+        }
+
+        void type(int opcode, String internalName) {
+            op(opcode, 0);
+            u2(classRef(internalName));
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void jump(int opcode, Label target) {
+            int at = length;
+            op(opcode, opcode == GOTO ? 0 : -1);
+            target.fixups.add(at);
+            u2(0);
+            target.stack = stack;
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            if (label.stack >= 0) stack = label.stack;
+            label.stack = stack;
+        }
+
+        void end() {
+            for (Label label : labels) {
+                for (int at : label.fixups) {
+                    int offset = label.position - at;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new TooLarge("Branch offset out of range.");
+                    }
+                    code[at + 1] = (byte) (offset >> 8);
+                    code[at + 2] = (byte) offset;
+                }
+            }
+            if (length > 0xffff) throw new TooLarge("Method too large.");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(bytes.toByteArray());
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            } else {
+                slots += 1;
+                i = skipType(descriptor, i);
+            }
+        }
+        return slots;
+    }
+
+    private static int skipType(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') i++;
+        if (descriptor.charAt(i) == 'L') return descriptor.indexOf(';', i) + 1;
+        return i + 1;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') return 0;
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+}
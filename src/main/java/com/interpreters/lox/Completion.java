@@ -0,0 +1,9 @@
+package com.interpreters.lox;
+
+// How a statement finished when it didn't fall through to the next one, which
+// it signals with null. A return leaves its value in Interpreter.returned and
+// is passed up through blocks, ifs and loops to the function running them.
+// Break and continue would be more of these, stopping at the enclosing loop.
+enum Completion {
+    RETURN,
+}
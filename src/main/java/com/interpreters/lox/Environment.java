@@ -1,31 +1,80 @@
 package com.interpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
+    private static final Object[] EMPTY = new Object[0];
 
     final Environment enclosing;
-    private final Map<String,Object> values = new HashMap<>();
+    // globals are late bound and looked up by name; only the outermost environment has them
+    private final Map<Symbol,Object> values;
+    // read-only globals shared with other interpreters, shadowed by assignment
+    private final Map<Symbol,Object> prelude;
+    // locals are laid out by the Resolver, one slot per declaration in scope order
+    private Object[] slots = EMPTY;
+    private int count = 0;
+    // a slot holding NUMBER keeps its value unboxed in numbers, allocated on first use
+    private static final Object NUMBER = new Object();
+    private double[] numbers = null;
+    // set on the frames a LoxEngine prelude's closures captured, which every execution shares
+    boolean frozen = false;
 
     Environment(Environment enclosing){
+        this(enclosing, Map.of());
+    }
+
+    Environment(Environment enclosing, Map<Symbol,Object> prelude){
         this.enclosing =  enclosing;
+        this.values = enclosing == null ? new HashMap<>() : Map.of();
+        this.prelude = prelude;
     }
 
     public Object get(Token name) throws  RuntimeError{
-        if (values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        if (values.containsKey(name.symbol)){
+            return values.get(name.symbol);
         }
         if (enclosing != null) return enclosing.get(name);
+        if (prelude.containsKey(name.symbol)) return prelude.get(name.symbol);
         throw  new RuntimeError(name,"Undefined variable "+ name.lexeme + ".");
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == NUMBER) return environment.numbers[slot];
+        return value;
+    }
+
+    // reads a local without boxing it, or throws UnexpectedResult if it isn't a number
+    double getNumberAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == NUMBER) return environment.numbers[slot];
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    boolean isNumberAt(int distance, int slot) {
+        Object value = ancestor(distance).slots[slot];
+        return value == NUMBER || value instanceof Double;
+    }
+
+    void assignAt(Token name, int distance, int slot, Object value) {
+        writable(name, distance).slots[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignNumberAt(Token name, int distance, int slot, double value) {
+        writable(name, distance).storeNumber(slot, value);
+    }
+
+    private Environment writable(Token name, int distance) {
+        Environment environment = ancestor(distance);
+        if (environment.frozen) {
+            throw new RuntimeError(name, "Cannot assign '" + name.lexeme + "', the prelude defined it.");
+        }
+        return environment;
     }
 
     Environment ancestor(int distance) {
@@ -37,19 +86,60 @@ public class Environment {
         return environment;
     }
 
+    // globals by name, empty below the outermost environment
+    Map<Symbol, Object> values() {
+        return values;
+    }
+
+    // number of locals defined so far
+    int size() {
+        return count;
+    }
+
     public void define( String name, Object value){
+        define(Symbol.of(name), value);
+    }
+
+    void define(Symbol name, Object value) {
         values.put(name, value);
     }
 
+    // appends a local into the next free slot
+    void define(Object value) {
+        if (count == slots.length) grow();
+        slots[count++] = value;
+    }
+
+    void defineNumber(double value) {
+        if (count == slots.length) grow();
+        storeNumber(count++, value);
+    }
+
+    private void grow() {
+        int capacity = Math.max(4, count * 2);
+        slots = Arrays.copyOf(slots, capacity);
+        if (numbers != null) numbers = Arrays.copyOf(numbers, capacity);
+    }
+
+    private void storeNumber(int slot, double value) {
+        if (numbers == null) numbers = new double[slots.length];
+        slots[slot] = NUMBER;
+        numbers[slot] = value;
+    }
+
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)){
-            values.put(name.lexeme,value);
+        if (values.containsKey(name.symbol)){
+            values.put(name.symbol,value);
             return;
         }
         if (enclosing != null){
             enclosing.assign(name, value);
             return;
-        } 
+        }
+        if (prelude.containsKey(name.symbol)) {
+            values.put(name.symbol, value);
+            return;
+        }
         throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
@@ -0,0 +1,9 @@
+package com.interpreters.lox;
+
+// Where the scanner, parser, resolver and interpreter send errors. The command
+// line prints them and sets Lox's flags; an engine execution collects its own.
+interface ErrorReporter {
+    void error(int line, String message);
+
+    void runtimeError(RuntimeError error);
+}
@@ -2,8 +2,8 @@ package com.interpreters.lox;
 
 import java.util.List;
 
-abstract class Expr {
-  interface Visitor<R> {
+public abstract class Expr {
+  public interface Visitor<R> {
     R visitBinaryExpr(Binary expr);
 
     R visitCallExpr(Call expr);
@@ -31,159 +31,167 @@ abstract class Expr {
     R visitAssignExpr(Assign expr);
   }
 
-  static class Binary extends Expr {
+  public static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
       this.right = right;
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
+    BinaryNode node = BinaryNode.UNINITIALIZED;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
     }
   }
 
-  static class Call extends Expr {
+  public static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
     }
 
-    final Expr callee;
-    final Token paren;
-    final List<Expr> arguments;
+    public final Expr callee;
+    public final Token paren;
+    public final List<Expr> arguments;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
   }
 
-  static class Grouping extends Expr {
+  public static class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
     }
 
-    final Expr expression;
+    public final Expr expression;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGroupingExpr(this);
     }
   }
 
-  static class Get extends Expr {
+  public static class Get extends Expr {
     Get(Expr object, Token name) {
       this.object = object;
       this.name = name;
     }
 
-    final Expr object;
-    final Token name;
+    public final Expr object;
+    public final Token name;
+    InlineCache cache = new InlineCache();
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
     }
   }
 
-  static class Set extends Expr {
+  public static class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
       this.object = object;
       this.name = name;
       this.value = value;
     }
 
-    final Expr object;
-    final Token name;
-    final Expr value;
+    public final Expr object;
+    public final Token name;
+    public final Expr value;
+    InlineCache cache = new InlineCache();
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
     }
   }
 
-  static class Super extends Expr {
+  public static class Super extends Expr {
     Super(Token keyword, Token method) {
       this.keyword = keyword;
       this.method = method;
     }
 
-    final Token keyword;
-    final Token method;
+    public final Token keyword;
+    public final Token method;
+    int depth = -1;
+    int thisDepth = -1;
+    InlineCache cache = new InlineCache();
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitSuperExpr(this);
     }
   }
 
-  static class This extends Expr {
+  public static class This extends Expr {
     This(Token keyword) {
       this.keyword = keyword;
     }
 
-    final Token keyword;
+    public final Token keyword;
+    int depth = -1;
+    int slot = -1;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
     }
   }
 
-  static class Literal extends Expr {
+  public static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
     }
 
-    final Object value;
+    public final Object value;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLiteralExpr(this);
     }
   }
 
-  static class Logical extends Expr {
+  public static class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
       this.right = right;
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
   }
 
-  static class Unary extends Expr {
+  public static class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
       this.right = right;
     }
 
-    final Token operator;
-    final Expr right;
+    public final Token operator;
+    public final Expr right;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitUnaryExpr(this);
     }
   }
 
-  static class Ternary extends Expr {
+  public static class Ternary extends Expr {
     Ternary(
         Expr expression,
         Token question_mark,
@@ -197,46 +205,50 @@ abstract class Expr {
       this.false_side = false_side;
     }
 
-    final Expr expression;
-    final Token question_mark;
-    final Expr truth_side;
-    final Token colon_operator;
-    final Expr false_side;
+    public final Expr expression;
+    public final Token question_mark;
+    public final Expr truth_side;
+    public final Token colon_operator;
+    public final Expr false_side;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitTernaryExpr(this);
     }
   }
 
-  static class Variable extends Expr {
+  public static class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
     }
 
-    final Token name;
+    public final Token name;
+    int depth = -1;
+    int slot = -1;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
     }
   }
 
-  static class Assign extends Expr {
+  public static class Assign extends Expr {
     Assign(Token name, Expr right) {
       this.name = name;
       this.right = right;
     }
 
-    final Token name;
-    final Expr right;
+    public final Token name;
+    public final Expr right;
+    int depth = -1;
+    int slot = -1;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
     }
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
 
@@ -0,0 +1,47 @@
+package com.interpreters.lox;
+
+// A per-site polymorphic cache from a receiver's shape (or class, for super) to
+// what the site resolved for it. Shapes and classes never change once created,
+// so a hit skips the lookup entirely. After POLYMORPHIC_LIMIT receivers the site
+// is megamorphic and callers do the lookup every time. Entries are immutable
+// and the head is replaced in a single write, so racing updates can only lose
+// an entry.
+final class InlineCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+    private static final Entry MEGAMORPHIC = new Entry(null, null, null, POLYMORPHIC_LIMIT);
+
+    private static final class Entry {
+        final Object key;
+        final Object value;
+        final Entry next;
+        final int size;
+
+        Entry(Object key, Object value, Entry next, int size) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+            this.size = size;
+        }
+    }
+
+    private Entry head = null;
+
+    // the value cached for key, or null on a miss
+    Object get(Object key) {
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            if (entry.key == key) return entry.value;
+        }
+        return null;
+    }
+
+    void put(Object key, Object value) {
+        Entry first = head;
+        if (first == null) {
+            head = new Entry(key, value, null, 1);
+        } else if (first.size < POLYMORPHIC_LIMIT) {
+            head = new Entry(key, value, first, first.size + 1);
+        } else {
+            head = MEGAMORPHIC;
+        }
+    }
+}
@@ -4,32 +4,42 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiFunction;
-
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private static final Map<TokenType, BiFunction<Double, Double, Object>> ARITHMETIC_OPERATORS = new HashMap<>();
-    private static final Map<TokenType, BiFunction<Double, Double, Boolean>> COMPARISON_OPERATORS = new HashMap<>();
-    final Environment globals = new Environment(null);
-     Environment environment = new Environment(globals);
-
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    static {
-        // Initialize arithmetic operators
-        ARITHMETIC_OPERATORS.put(TokenType.MINUS, (a, b) -> a - b);
-        ARITHMETIC_OPERATORS.put(TokenType.SLASH, (a, b) -> a / b);
-        ARITHMETIC_OPERATORS.put(TokenType.STAR, (a, b) -> a * b);
-        ARITHMETIC_OPERATORS.put(TokenType.MODULUS, (a, b) -> a % b);
-
-        // Initialize comparison operators
-        COMPARISON_OPERATORS.put(TokenType.GREATER_EQUAL, (a, b) -> a >= b);
-        COMPARISON_OPERATORS.put(TokenType.LESS_EQUAL, (a, b) -> a <= b);
-        COMPARISON_OPERATORS.put(TokenType.GREATER, (a, b) -> a > b);
-        COMPARISON_OPERATORS.put(TokenType.LESS, (a, b) -> a < b);
-    }
+import java.util.function.Consumer;
+
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    final Environment globals;
+    // built-in functions by global name, a snapshot refers to them by that name
+    final Map<String, LoxCallable> natives = new HashMap<>();
+    Environment environment;
+    // set when running with --jit
+    Jit jit = null;
+    // set by --profile, told about every call so it can sample the Lox stack
+    Profiler profiler = null;
+    // set by --metrics, counts calls, allocations and statements; compiled code is not used then
+    Metrics metrics = null;
+    // set for a sandboxed execution, compiled code is not used then as it doesn't count
+    Budget budget = null;
+    final ErrorReporter reporter;
+    // where print statements go, a line at a time
+    final Consumer<String> out;
+    // the value of the return that completed with Completion.RETURN, or the TailCall it made
+    Object returned;
+    // set by a return of a call for the call it evaluates next, which then makes a TailCall
+    private boolean tail = false;
 
     Interpreter(){
-        globals.define("clock", new LoxCallable() {
+        this(Lox.CONSOLE, System.out::println, Map.of());
+    }
+
+    // An interpreter shares nothing mutable with others but the prelude's
+    // globals, which it reads and shadows on assignment, so each one can run
+    // on its own thread.
+    Interpreter(ErrorReporter reporter, Consumer<String> out, Map<Symbol, Object> prelude) {
+        this.reporter = reporter;
+        this.out = out;
+        this.globals = new Environment(null, prelude);
+        this.environment = globals;
+        defineNative("clock", new LoxCallable() {
             @Override
             public int arity() {return 0;}
 
@@ -42,7 +52,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public String toString() {return "<native fx(clock)>";}
         });
 
-        globals.define("sum", new LoxCallable() {
+        defineNative("sum", new LoxCallable() {
             @Override
             public int arity() {
                 return 124;
@@ -65,30 +75,39 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
-    private Object handlePlusOperator(Token operator, Object left, Object right) {
+    private void defineNative(String name, LoxCallable function) {
+        natives.put(name, function);
+        globals.define(name, function);
+    }
+
+    static Object handlePlusOperator(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return (Double) left + (Double) right;
         }
-        if (left instanceof String && right instanceof String) {
-            return (String) left + right;
+        // strings are a String or a Rope, long results become ropes
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return Rope.concat((CharSequence) left, (CharSequence) right);
         }
         // support instance where S + N or  N + S
-        if (left instanceof String && right instanceof Double) {
-            return (String) left + stringify(right);
+        if (left instanceof CharSequence && right instanceof Double) {
+            return Rope.concat((CharSequence) left, stringify(right));
         }
-        if (left instanceof  Double && right instanceof String ) {
-            return stringify(left) + (String) right;
+        if (left instanceof  Double && right instanceof CharSequence ) {
+            return Rope.concat(stringify(left), (CharSequence) right);
         }
         throw new RuntimeError(operator, "Operands must be two numbers or two strings");
     }
 
-    private Boolean isEqual(Object left, Object right) {
+    static Boolean isEqual(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null) return false;
+        // a rope equals a String or another rope with the same characters
+        if (left instanceof Rope) left = left.toString();
+        if (right instanceof Rope) right = right.toString();
         return left.equals(right);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
@@ -98,17 +117,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expression.accept(this);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
         if (object instanceof Double) {
             String text = object.toString();
@@ -120,8 +139,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    private void execute(Stmt statement){
-      statement.accept(this);
+    private Completion execute(Stmt statement){
+      if (metrics != null) metrics.executed(statement);
+      return statement.accept(this);
     }
 
     void interpret(List<Stmt> statements) {
@@ -130,77 +150,163 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
+        }
+    }
+
+    // NUMBERS
+    // Arithmetic specialized by BinaryNode is evaluated on unboxed doubles, and locals
+    // can hold them unboxed, so a number is only boxed when it escapes as an Object.
+
+    double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary binary && binary.node instanceof BinaryNode.ArithmeticNode arithmetic) {
+            double left;
+            try {
+                left = evaluateNumber(binary.left);
+            } catch (UnexpectedResult unexpected) {
+                return expectNumber(arithmetic.execute(binary, unexpected.value, evaluate(binary.right)));
+            }
+            double right;
+            try {
+                right = evaluateNumber(binary.right);
+            } catch (UnexpectedResult unexpected) {
+                return expectNumber(arithmetic.execute(binary, left, unexpected.value));
+            }
+            return arithmetic.compute(left, right);
+        }
+        if (expr instanceof Expr.Variable variable && variable.depth != -1) {
+            return environment.getNumberAt(variable.depth, variable.slot);
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return evaluateNumber(grouping.expression);
+        }
+        if (expr instanceof Expr.Unary unary && unary.operator.type == TokenType.MINUS) {
+            try {
+                return -evaluateNumber(unary.right);
+            } catch (UnexpectedResult unexpected) {
+                checkNumberOperand(unary.operator, unexpected.value);
+                throw unexpected;
+            }
+        }
+        return expectNumber(evaluate(expr));
+    }
+
+    private static double expectNumber(Object value) {
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    // whether a value about to be stored in a local is likely a number worth keeping unboxed
+    private boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Binary binary) return binary.node instanceof BinaryNode.ArithmeticNode;
+        if (expr instanceof Expr.Variable variable) {
+            return variable.depth != -1 && environment.isNumberAt(variable.depth, variable.slot);
         }
+        if (expr instanceof Expr.Grouping grouping) return isNumeric(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return unary.operator.type == TokenType.MINUS;
+        return false;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        // the value of an assignment statement is discarded, so a number never needs boxing
+        if (stmt.expression instanceof Expr.Assign assign && assign.depth != -1 && isNumeric(assign.right)) {
+            try {
+                double value = evaluateNumber(assign.right);
+                environment.assignNumberAt(assign.name, assign.depth, assign.slot, value);
+            } catch (UnexpectedResult unexpected) {
+                environment.assignAt(assign.name, assign.depth, assign.slot, unexpected.value);
+            }
+            return null;
+        }
         evaluate(stmt.expression);
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
        Object value = evaluate(stmt.expression);
-       System.out.println(stringify(value));
+       out.accept(stringify(value));
        return null;
     }
 
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         // store a value in global variable environment 
         // or store the result after evaluation 
+        if (environment != globals && stmt.initializer != null && isNumeric(stmt.initializer)) {
+            try {
+                double value = evaluateNumber(stmt.initializer);
+                environment.defineNumber(value);
+            } catch (UnexpectedResult unexpected) {
+                environment.define(unexpected.value);
+            }
+            return null;
+        }
         Object value =  null; // supports var _name; <=> {token: "_name", value=}
         if (stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, value);
         return null;
     }
 
+    // top-level declarations are globals, everything else was given a slot by the Resolver
+    private void define(Token name, Object value) {
+        if (environment == globals) {
+            globals.define(name.symbol, value);
+        } else {
+            environment.define(value);
+        }
+    }
+
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
        while(isTruthy(evaluate(stmt.condition))){
-           execute(stmt.body);
+           Completion completion = execute(stmt.body);
+           if (completion != null) return completion;
+           if (budget != null) budget.step(null);
        }
        return null;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment,
                 false);
-        environment.define(stmt.functionName.lexeme,function);
+        define(stmt.functionName, function);
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
-        throw new Return(value);
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tail) {
+            tail = true;
+            returned = visitCallExpr((Expr.Call) stmt.value);
+        } else {
+            returned = stmt.value == null ? null : evaluate(stmt.value);
+        }
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
 
         Object superclass = null;
         if (stmt.superclass != null) {
@@ -210,18 +316,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme,null);
+        if (environment == globals) globals.define(stmt.name.symbol, null);
 
         if (stmt.superclass != null) {
             environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment.define(superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             LoxFunction function = new LoxFunction(method, environment,
-                    method.functionName.lexeme.equals("init"));
-            methods.put(method.functionName.lexeme,function);
+                    method.functionName.symbol == Symbol.INIT, true);
+            methods.put(method.functionName.symbol,function);
         }
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass,methods);
 
@@ -229,28 +335,39 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name,klass);
+        if (environment == globals) {
+            globals.assign(stmt.name, klass);
+        } else {
+            environment.define(klass);
+        }
         return null;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
-        if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    private Object getProperty(Expr.Get expr, Object object) {
+        if (object instanceof LoxInstance instance) {
+            return instance.get(expr.name, property(expr, instance));
         }
         throw new RuntimeError(expr.name,
                 "Only instances have properties.");
     }
 
-    void executeBlock(List<Stmt> statements,
+    // stops at the first statement that doesn't complete normally and passes its completion on
+    Completion executeBlock(List<Stmt> statements,
                       Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (Stmt statement : statements) {
-                execute(statement);
+            // indexed so a block doesn't allocate an iterator every time it runs
+            for (int i = 0; i < statements.size(); i++) {
+                Completion completion = execute(statements.get(i));
+                if (completion != null) return completion;
             }
+            return null;
         } finally {
             this.environment = previous;
         }
@@ -268,56 +385,127 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        // a call's result comes boxed anyway, evaluating it through evaluateNumber
+        // would only add a Java frame to every level of a recursion like 1 + f(n - 1)
+        if (expr.node instanceof BinaryNode.NumberNode number
+                && !(expr.left instanceof Expr.Call) && !(expr.right instanceof Expr.Call)) {
+            return numeric(expr, number);
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        // Handle special cases first
-        if (expr.operator.type == TokenType.PLUS) {
-            return handlePlusOperator(expr.operator, left, right);
-        }
-        if (expr.operator.type == TokenType.BANG_EQUAL) {
-            checkNumberOperands(expr.operator, left, right);
-            return !isEqual(left, right);
-        }
-        if (expr.operator.type == TokenType.EQUAL_EQUAL) {
-            checkNumberOperands(expr.operator, left, right);
-            return isEqual(left, right);
-        }
+        return charged(expr, expr.node.execute(expr, left, right));
+    }
 
-        // Handle arithmetic operations
-        if (ARITHMETIC_OPERATORS.containsKey(expr.operator.type)) {
-            checkNumberOperands(expr.operator, left, right);
-            return ARITHMETIC_OPERATORS.get(expr.operator.type)
-                    .apply((Double) left, (Double) right);
+    // apart from visitBinaryExpr so its unboxed operands don't size the frames
+    // of the boxed path, which recursion through an operator nests
+    private Object numeric(Expr.Binary expr, BinaryNode.NumberNode number) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult unexpected) {
+            return charged(expr, number.execute(expr, unexpected.value, evaluate(expr.right)));
         }
-
-        // Handle comparison operations
-        if (COMPARISON_OPERATORS.containsKey(expr.operator.type)) {
-            checkNumberOperands(expr.operator, left, right);
-            return COMPARISON_OPERATORS.get(expr.operator.type)
-                    .apply((Double) left, (Double) right);
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult unexpected) {
+            return charged(expr, number.execute(expr, left, unexpected.value));
         }
+        return number.apply(left, right);
+    }
 
-        return null;
+    // + is the only operator that makes strings, a sandbox pays for them and metrics count them
+    private Object charged(Expr.Binary expr, Object value) {
+        if ((budget != null || metrics != null) && value instanceof CharSequence string) {
+            if (budget != null) budget.string(expr.operator, string);
+            if (metrics != null) metrics.allocated();
+        }
+        return value;
     }
 
+    // A tail call to a Lox function returns a TailCall for the function being
+    // returned from to run; classes and natives are called here either way.
+    // Lox functions are called from right here, every Java frame between two
+    // Lox calls is one deep recursion runs out of stack with.
     @Override
     public Object visitCallExpr(Expr.Call expr) throws RuntimeError {
+        boolean tail = this.tail;
+        this.tail = false;
+        if (budget != null) budget.step(expr.paren);
+        if (expr.callee instanceof Expr.Get get) return invoke(expr, get, tail);
+        if (expr.callee instanceof Expr.Super superExpr) {
+            LoxFunction method = superMethod(superExpr);
+            LoxInstance object = (LoxInstance)environment.getAt(superExpr.thisDepth, 0);
+            List<Object> arguments = evaluateArguments(expr);
+            checkArity(expr, method, arguments);
+            if (tail) return new TailCall(method, object, arguments);
+            return method.callOn(this, object, arguments);
+        }
+
         Object callee = evaluate(expr.callee);
+        List<Object> arguments = evaluateArguments(expr);
+        if (callee instanceof LoxFunction function) {
+            checkArity(expr, function, arguments);
+            if (tail) return new TailCall(function, function.receiver, arguments);
+            return function.callOn(this, function.receiver, arguments);
+        }
+        return call(expr, callee, arguments, tail);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            arguments.add(evaluate(expr.arguments.get(i)));
         }
+        return arguments;
+    }
+
+    // obj.method(...) calls the cached method directly instead of binding it first
+    private Object invoke(Expr.Call expr, Expr.Get get, boolean tail) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance instance)) {
+            return call(expr, getProperty(get, object), evaluateArguments(expr), tail);
+        }
+        Shape.Property property = property(get, instance);
+        if (property.method == null) {
+            return call(expr, instance.get(get.name, property), evaluateArguments(expr), tail);
+        }
+        List<Object> arguments = evaluateArguments(expr);
+        checkArity(expr, property.method, arguments);
+        if (tail) return new TailCall(property.method, instance, arguments);
+        return property.method.callOn(this, instance, arguments);
+    }
+
+    private static Shape.Property property(Expr.Get expr, LoxInstance instance) {
+        Shape shape = instance.shape;
+        Shape.Property property = (Shape.Property) expr.cache.get(shape);
+        if (property == null) {
+            property = shape.lookup(expr.name.symbol);
+            expr.cache.put(shape, property);
+        }
+        return property;
+    }
 
+    private Object call(Expr.Call expr, Object callee, List<Object> arguments, boolean tail) {
         if (!(callee instanceof LoxCallable function))
             throw new RuntimeError(expr.paren,"Can only call functions and classes");
+        checkArity(expr, function, arguments);
+        if (tail && function instanceof LoxFunction lox) return new TailCall(lox, lox.receiver, arguments);
+        if (function instanceof LoxClass klass) {
+            if (budget != null) budget.instance(expr.paren, klass);
+            if (metrics != null) metrics.allocated();
+        }
+        return function.call(this, arguments);
+    }
+
+    private static void checkArity(Expr.Call expr, LoxCallable function, List<Object> arguments) {
         if (arguments.size() != function.arity()){
             throw new RuntimeError(expr.paren, "Expected " +
                     function.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments);
     }
 
     @Override
@@ -344,13 +532,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth != -1) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
@@ -360,10 +547,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        Object value = evaluate(expr.right);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.name, expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -391,32 +577,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     "Only instances have fields.");
         }
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        LoxInstance instance = (LoxInstance)object;
+        // read the shape only now, evaluating the value may have added fields
+        Shape shape = instance.shape;
+        Shape.Property property = (Shape.Property) expr.cache.get(shape);
+        if (property == null) {
+            property = shape.store(expr.name.symbol);
+            expr.cache.put(shape, property);
+        }
+        if (budget != null && property.shape != shape) budget.field(expr.name);
+        instance.set(expr.name, property, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(
-                distance, "super");
         LoxInstance object = (LoxInstance)environment.getAt(
-                distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+                expr.thisDepth, 0);
+        return superMethod(expr).bind(object);
+    }
+
+    private LoxFunction superMethod(Expr.Super expr) {
+        LoxClass superclass = (LoxClass)environment.getAt(
+                expr.depth, 0);
+        LoxFunction method = (LoxFunction) expr.cache.get(superclass);
         if (method == null) {
-            throw new RuntimeError(expr.method,
-                    "Undefined property '" + expr.method.lexeme + "'.");
+            method = superclass.findMethod(expr.method.symbol);
+            if (method == null) {
+                throw new RuntimeError(expr.method,
+                        "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            expr.cache.put(superclass, method);
         }
-        return method.bind(object);
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
-    }
-
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
 }
\ No newline at end of file
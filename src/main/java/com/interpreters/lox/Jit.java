@@ -0,0 +1,515 @@
+package com.interpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.interpreters.lox.ClassFileWriter.*;
+
+// Tiered compilation for the tree-walker. Once a function declaration has been
+// called THRESHOLD times its body is translated into a JVM class, defined as a
+// hidden class next to the interpreter, and called directly from then on so
+// HotSpot can profile and inline it like any other Java code. Calls between
+// compiled functions link straight to the callee's code, see JitRuntime.Site.
+//
+// Declarations belong to trees that several interpreters may run at once, so
+// the call count is incremented atomically and compiled code is published
+// once, whichever thread compiled it first.
+//
+// Locals of the compiled function become JVM locals, so any construct that
+// could capture them (nested functions and classes) keeps the function on the
+// tree-walker, as does anything else the translator does not handle.
+final class Jit {
+    static final int THRESHOLD = 1000;
+    private static final boolean DEBUG = Boolean.getBoolean("lox.jit.debug");
+    private static final VarHandle CALLS;
+    private static final VarHandle JITTED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CALLS = lookup.findVarHandle(Stmt.Function.class, "calls", int.class);
+            JITTED = lookup.findVarHandle(Stmt.Function.class, "jitted", Code.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    interface Code {
+        Object invoke(Interpreter interpreter, Environment closure, Object receiver, Object[] arguments);
+    }
+
+    // marks a declaration that could not be compiled
+    private static final Code UNSUPPORTED = (interpreter, closure, receiver, arguments) -> {
+        throw new IllegalStateException("Function was not compiled.");
+    };
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String TOKEN = "com/interpreters/lox/Token";
+    private static final String TOKEN_DESC = "Lcom/interpreters/lox/Token;";
+    private static final String ENVIRONMENT = "com/interpreters/lox/Environment";
+    private static final String INTERPRETER_DESC = "Lcom/interpreters/lox/Interpreter;";
+    private static final String RUNTIME = "com/interpreters/lox/JitRuntime";
+    private static final String CODE = "com/interpreters/lox/Jit$Code";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String METHOD_HANDLE_DESC = "L" + METHOD_HANDLE + ";";
+    private static final String CALL_DESC = JitRuntime.CALL_TYPE.toMethodDescriptorString();
+    private static final String INVOKE_DESC =
+            "(" + INTERPRETER_DESC + "Lcom/interpreters/lox/Environment;" + OBJECT_DESC + "[Ljava/lang/Object;)" + OBJECT_DESC;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    // compiled code for the declaration, or null while it is still interpreted
+    Code codeFor(Stmt.Function declaration, boolean isInitializer, boolean isMethod) {
+        Code code = (Code) JITTED.getAcquire(declaration);
+        if (code == null) {
+            if ((int) CALLS.getAndAdd(declaration, 1) + 1 < THRESHOLD) return null;
+            code = compile(declaration, isInitializer, isMethod);
+            Code raced = (Code) JITTED.compareAndExchangeRelease(declaration, null, code);
+            if (raced != null) code = raced;
+        }
+        return code == UNSUPPORTED ? null : code;
+    }
+
+    // the declaration's compiled code if it has any, without counting a call
+    static Code compiled(Stmt.Function declaration) {
+        Code code = (Code) JITTED.getAcquire(declaration);
+        return code == UNSUPPORTED ? null : code;
+    }
+
+    // Unsupported constructs and oversized methods keep the function on the
+    // tree-walker. So do class files the JVM rejects, which are translation
+    // bugs: -Dlox.jit.debug prints them. Anything else, a stack overflow
+    // compiling deep in a recursion say, propagates and compiling is retried
+    // on a later call.
+    private Code compile(Stmt.Function declaration, boolean isInitializer, boolean isMethod) {
+        try {
+            FunctionCompiler compiler = new FunctionCompiler(declaration, isInitializer, isMethod);
+            byte[] bytes = compiler.compile();
+            Object[] sites = compiler.sites.stream().map(JitRuntime.Site::dynamicInvoker).toArray();
+            Class<?> compiled = lookup.defineHiddenClassWithClassData(bytes, sites, true).lookupClass();
+            return (Code) compiled.getConstructor(Object[].class).newInstance((Object) compiler.constants.toArray());
+        } catch (Unsupported | ClassFileWriter.TooLarge e) {
+            return UNSUPPORTED;
+        } catch (LinkageError | ReflectiveOperationException e) {
+            if (DEBUG) {
+                System.err.println("[jit] Could not compile " + declaration.functionName.lexeme
+                        + " (line " + declaration.functionName.line + "): " + e);
+            }
+            return UNSUPPORTED;
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Translates one function body into `invoke(interpreter, closure, receiver, arguments)`.
+    // JVM locals: 0 = this, 1 = interpreter, 2 = closure, 3 = receiver, 4 = arguments,
+    // then Lox locals, starting with the receiver for methods. Call site i is
+    // static field `site<i>`, which <clinit> loads from the class data.
+    private static final class FunctionCompiler implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        private final Stmt.Function declaration;
+        private final boolean isInitializer;
+        private final boolean isMethod;
+        private final ClassFileWriter writer;
+        private ClassFileWriter.Code code;
+        private final String className;
+        // JVM local index of every Lox local, by scope then by Resolver slot
+        private final List<List<Integer>> scopes = new ArrayList<>();
+        private int nextLocal = 5;
+        // values the generated code loads by index from its `k` field
+        final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        final List<JitRuntime.Site> sites = new ArrayList<>();
+
+        FunctionCompiler(Stmt.Function declaration, boolean isInitializer, boolean isMethod) {
+            this.declaration = declaration;
+            this.isInitializer = isInitializer;
+            this.isMethod = isMethod;
+            this.className = "com/interpreters/lox/Jitted$" + declaration.functionName.lexeme;
+            this.writer = new ClassFileWriter(className, OBJECT, CODE);
+        }
+
+        byte[] compile() {
+            writer.field("k", "[Ljava/lang/Object;");
+
+            ClassFileWriter.Code init = writer.method("<init>", "([Ljava/lang/Object;)V", 2);
+            init.aload(0);
+            init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+            init.aload(0);
+            init.aload(1);
+            init.field(PUTFIELD, className, "k", "[Ljava/lang/Object;");
+            init.op(RETURN, 0);
+            init.end();
+
+            code = writer.method("invoke", INVOKE_DESC, 5);
+            List<Integer> parameters = new ArrayList<>();
+            scopes.add(parameters);
+            if (isMethod) parameters.add(3);
+            for (int i = 0; i < declaration.parameters.size(); i++) {
+                code.aload(4);
+                code.loadInt(i);
+                code.op(AALOAD, -1);
+                int local = nextLocal++;
+                code.astore(local);
+                parameters.add(local);
+            }
+            for (Stmt statement : declaration.body) {
+                compile(statement);
+            }
+            emitReturn(null);
+            code.end();
+
+            if (!sites.isEmpty()) {
+                ClassFileWriter.Code clinit = writer.staticMethod("<clinit>", "()V", 0);
+                clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                        "()Ljava/lang/invoke/MethodHandles$Lookup;");
+                clinit.loadString("_");
+                clinit.loadClass("[Ljava/lang/Object;");
+                clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)" + OBJECT_DESC);
+                clinit.type(CHECKCAST, "[Ljava/lang/Object;");
+                clinit.astore(0);
+                for (int i = 0; i < sites.size(); i++) {
+                    writer.staticField("site" + i, METHOD_HANDLE_DESC);
+                    clinit.aload(0);
+                    clinit.loadInt(i);
+                    clinit.op(AALOAD, -1);
+                    clinit.type(CHECKCAST, METHOD_HANDLE);
+                    clinit.field(PUTSTATIC, className, "site" + i, METHOD_HANDLE_DESC);
+                }
+                clinit.op(RETURN, 0);
+                clinit.end();
+            }
+
+            return writer.toByteArray();
+        }
+
+        private void compile(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        private void compile(Expr expr) {
+            expr.accept(this);
+        }
+
+        private void loadConstant(Object value) {
+            Integer index = constantIndex.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndex.put(value, index);
+            }
+            code.aload(0);
+            code.field(GETFIELD, className, "k", "[Ljava/lang/Object;");
+            code.loadInt(index);
+            code.op(AALOAD, -1);
+        }
+
+        private void loadToken(Token token) {
+            loadConstant(token);
+            code.type(CHECKCAST, TOKEN);
+        }
+
+        private void runtime(String name, String descriptor) {
+            code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+        }
+
+        private void emitReturn(Expr value) {
+            if (isInitializer) {
+                code.aload(3);
+            } else if (value == null) {
+                code.op(ACONST_NULL, 1);
+            } else {
+                compile(value);
+            }
+            code.op(ARETURN, -1);
+        }
+
+        // VARIABLES
+
+        private Integer localFor(int depth, int slot) {
+            int level = scopes.size() - 1 - depth;
+            if (level < 0) return null;
+            return scopes.get(level).get(slot);
+        }
+
+        private void loadVariable(Token name, int depth, int slot) {
+            if (depth == -1) {
+                code.aload(1);
+                loadToken(name);
+                runtime("getGlobal", "(" + INTERPRETER_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+                return;
+            }
+            Integer local = localFor(depth, slot);
+            if (local != null) {
+                code.aload(local);
+                return;
+            }
+            code.aload(2);
+            code.loadInt(depth - scopes.size());
+            code.loadInt(slot);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)" + OBJECT_DESC);
+        }
+
+        // STATEMENTS
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            compile(stmt.expression);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            compile(stmt.expression);
+            code.aload(1);
+            runtime("print", "(" + OBJECT_DESC + INTERPRETER_DESC + ")V");
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                code.op(ACONST_NULL, 1);
+            }
+            int local = nextLocal++;
+            code.astore(local);
+            scopes.get(scopes.size() - 1).add(local);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            scopes.add(new ArrayList<>());
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            ClassFileWriter.Label elseBranch = code.label();
+            ClassFileWriter.Label end = code.label();
+            compile(stmt.condition);
+            runtime("isTruthy", "(" + OBJECT_DESC + ")Z");
+            code.jump(IFEQ, elseBranch);
+            compile(stmt.thenBranch);
+            code.jump(GOTO, end);
+            code.mark(elseBranch);
+            if (stmt.elseBranch != null) compile(stmt.elseBranch);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            ClassFileWriter.Label start = code.label();
+            ClassFileWriter.Label end = code.label();
+            code.mark(start);
+            compile(stmt.condition);
+            runtime("isTruthy", "(" + OBJECT_DESC + ")Z");
+            code.jump(IFEQ, end);
+            compile(stmt.body);
+            code.jump(GOTO, start);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.tail) {
+                Expr.Call call = (Expr.Call) stmt.value;
+                emitArguments(call);
+                runtime("tailCall", CALL_DESC);
+                code.op(ARETURN, -1);
+                return null;
+            }
+            emitReturn(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+
+        // EXPRESSIONS
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            String helper = switch (expr.operator.type) {
+                case PLUS -> "add";
+                case MINUS -> "subtract";
+                case STAR -> "multiply";
+                case SLASH -> "divide";
+                case MODULUS -> "modulo";
+                case GREATER -> "greater";
+                case GREATER_EQUAL -> "greaterEqual";
+                case LESS -> "less";
+                case LESS_EQUAL -> "lessEqual";
+                case EQUAL_EQUAL -> "equal";
+                case BANG_EQUAL -> "notEqual";
+                default -> throw new Unsupported();
+            };
+            compile(expr.left);
+            compile(expr.right);
+            loadToken(expr.operator);
+            runtime(helper, "(" + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            int site = sites.size();
+            sites.add(new JitRuntime.Site());
+            code.field(GETSTATIC, className, "site" + site, METHOD_HANDLE_DESC);
+            emitArguments(expr);
+            code.invoke(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", CALL_DESC);
+            return null;
+        }
+
+        // pushes the callee, the arguments, the interpreter and the paren, as JitRuntime.CALL_TYPE takes them
+        private void emitArguments(Expr.Call expr) {
+            compile(expr.callee);
+            code.loadInt(expr.arguments.size());
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                code.op(DUP, 1);
+                code.loadInt(i);
+                compile(expr.arguments.get(i));
+                code.op(AASTORE, -3);
+            }
+            code.aload(1);
+            loadToken(expr.paren);
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            compile(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            compile(expr.object);
+            loadToken(expr.name);
+            runtime("get", "(" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            compile(expr.object);
+            loadToken(expr.name);
+            runtime("checkInstance", "(" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            compile(expr.value);
+            loadToken(expr.name);
+            runtime("set", "(" + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            loadVariable(expr.keyword, expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value == null) {
+                code.op(ACONST_NULL, 1);
+            } else if (expr.value instanceof Boolean bool) {
+                code.field(GETSTATIC, "java/lang/Boolean", bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+            } else {
+                loadConstant(expr.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            ClassFileWriter.Label end = code.label();
+            compile(expr.left);
+            code.op(DUP, 1);
+            runtime("isTruthy", "(" + OBJECT_DESC + ")Z");
+            code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+            code.op(POP, -1);
+            compile(expr.right);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            compile(expr.right);
+            switch (expr.operator.type) {
+                case MINUS -> {
+                    loadToken(expr.operator);
+                    runtime("negate", "(" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+                }
+                case BANG -> runtime("not", "(" + OBJECT_DESC + ")" + OBJECT_DESC);
+                default -> {}
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            loadVariable(expr.name, expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            if (expr.depth == -1) {
+                code.aload(1);
+                compile(expr.right);
+                loadToken(expr.name);
+                runtime("assignGlobal", "(" + INTERPRETER_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+                return null;
+            }
+            Integer local = localFor(expr.depth, expr.slot);
+            if (local != null) {
+                compile(expr.right);
+                code.op(DUP, 1);
+                code.astore(local);
+                return null;
+            }
+            code.aload(2);
+            code.loadInt(expr.depth - scopes.size());
+            code.loadInt(expr.slot);
+            compile(expr.right);
+            loadToken(expr.name);
+            runtime("assignAt", "(Lcom/interpreters/lox/Environment;II" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.interpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+// Static entry points called from JIT compiled code. Each mirrors the matching
+// Interpreter visit method so compiled and interpreted functions behave the same.
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static Object add(Object left, Object right, Token operator) {
+        return Interpreter.handlePlusOperator(operator, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left - (Double) right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left * (Double) right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left / (Double) right;
+    }
+
+    static Object modulo(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left % (Double) right;
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left > (Double) right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left >= (Double) right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left < (Double) right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (Double) left <= (Double) right;
+    }
+
+    static Object equal(Object left, Object right, Token operator) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right, Token operator) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, right);
+        return -(Double) right;
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.isTruthy(right);
+    }
+
+    static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static void print(Object value, Interpreter interpreter) {
+        interpreter.out.accept(Interpreter.stringify(value));
+    }
+
+    static Object getGlobal(Interpreter interpreter, Token name) {
+        return interpreter.globals.get(name);
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Object value, Token name) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static Object assignAt(Environment environment, int distance, int slot, Object value, Token name) {
+        environment.assignAt(name, distance, slot, value);
+        return value;
+    }
+
+    static Object get(Object object, Token name) {
+        if (object instanceof LoxInstance instance) return instance.get(name);
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    static Object checkInstance(Object object, Token name) {
+        if (object instanceof LoxInstance) return object;
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    static Object set(Object object, Object value, Token name) {
+        ((LoxInstance) object).set(name, value);
+        return value;
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof LoxCallable function))
+            throw new RuntimeError(paren, "Can only call functions and classes");
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.length + ".");
+        }
+        if (function instanceof LoxFunction loxFunction) return loxFunction.call(interpreter, arguments);
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    // CALL SITES
+    // Every call in compiled code goes through its own Site, which compiled
+    // code holds in a static final field and invokes with invokeExact, so to
+    // HotSpot it is a constant just like an invokedynamic call site. A site
+    // starts out calling through call() above. Once it has called a function
+    // whose declaration is compiled, it links to that declaration's code,
+    // guarded on the callee's declaration. Closures and bound methods share
+    // their declaration's code, so the guard holds for all of them. HotSpot
+    // then sees a direct call into the callee's code, which it can inline.
+    // The profiler needs every call to go through LoxFunction, so the guards
+    // fail while one is attached.
+
+    static final MethodType CALL_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object[].class, Interpreter.class, Token.class);
+
+    private static final MethodHandle CALL;
+    private static final MethodHandle MISS;
+    private static final MethodHandle DECLARES;
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle CLOSURE;
+    private static final MethodHandle RECEIVER;
+    private static final MethodHandle FINISH;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            CALL = lookup.findStatic(JitRuntime.class, "call", CALL_TYPE);
+            MISS = lookup.findVirtual(Site.class, "miss", CALL_TYPE);
+            DECLARES = lookup.findStatic(JitRuntime.class, "declares",
+                    MethodType.methodType(boolean.class, Object.class, Interpreter.class, Stmt.Function.class));
+            INVOKE = lookup.findVirtual(Jit.Code.class, "invoke", MethodType.methodType(Object.class,
+                    Interpreter.class, Environment.class, Object.class, Object[].class));
+            CLOSURE = lookup.findStatic(JitRuntime.class, "closure",
+                    MethodType.methodType(Environment.class, Object.class));
+            RECEIVER = lookup.findStatic(JitRuntime.class, "receiver",
+                    MethodType.methodType(Object.class, Object.class));
+            FINISH = lookup.findStatic(JitRuntime.class, "finish",
+                    CALL_TYPE.insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static final class Site extends MutableCallSite {
+        // declarations one site will link to before it settles for call()
+        private static final int MAX_LINKS = 4;
+        private int links = 0;
+
+        Site() {
+            super(CALL_TYPE);
+            setTarget(MISS.bindTo(this));
+        }
+
+        private Object miss(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+            Object result = call(callee, arguments, interpreter, paren);
+            // the call above may just have compiled the callee
+            if (callee instanceof LoxFunction function && interpreter.profiler == null) link(function.declaration);
+            return result;
+        }
+
+        private synchronized void link(Stmt.Function declaration) {
+            Jit.Code code = Jit.compiled(declaration);
+            if (code == null) return;
+            if (links == MAX_LINKS) {
+                setTarget(CALL);
+                return;
+            }
+            links++;
+            // code.invoke(interpreter, callee.closure, callee.receiver, arguments), then any tail calls it returns
+            MethodHandle direct = MethodHandles.filterArguments(INVOKE.bindTo(code), 1, CLOSURE, RECEIVER);
+            direct = MethodHandles.permuteArguments(direct, CALL_TYPE, 2, 0, 0, 1);
+            direct = MethodHandles.foldArguments(FINISH, direct);
+            MethodHandle test = MethodHandles.permuteArguments(MethodHandles.insertArguments(DECLARES, 2, declaration),
+                    CALL_TYPE.changeReturnType(boolean.class), 0, 2);
+            // earlier links stay behind this one, as the fallback
+            setTarget(MethodHandles.guardWithTest(test, direct, getTarget()));
+        }
+    }
+
+    private static boolean declares(Object callee, Interpreter interpreter, Stmt.Function declaration) {
+        return callee instanceof LoxFunction function && function.declaration == declaration
+                && interpreter.profiler == null;
+    }
+
+    private static Environment closure(Object callee) {
+        return ((LoxFunction) callee).closure;
+    }
+
+    private static Object receiver(Object callee) {
+        return ((LoxFunction) callee).receiver;
+    }
+
+    private static Object finish(Object result, Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        return result instanceof TailCall call ? LoxFunction.trampoline(interpreter, call) : result;
+    }
+
+    // `return f(...)` in compiled code, handing a Lox function back to the caller's trampoline
+    static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (callee instanceof LoxFunction function && arguments.length == function.arity()) {
+            return new TailCall(function, function.receiver, Arrays.asList(arguments));
+        }
+        return call(callee, arguments, interpreter, paren);
+    }
+}
@@ -1,40 +1,231 @@
 package com.interpreters.lox;
 
 
+import com.interpreters.lox.vm.VM;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.management.JMException;
 
 
 
 public class Lox {
 
+    // prints errors and sets the flags below; declared first, the interpreter uses it
+    static final ErrorReporter CONSOLE = new ErrorReporter() {
+        @Override
+        public void error(int line, String message) {
+            Lox.error(line, message);
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    };
+
     private static final Interpreter interpreter = new Interpreter();
+    // set by --vm: compile to bytecode and run on the VM instead of walking the tree
+    private static VM vm = null;
+    // resolved scripts by source hash, off with --no-cache
+    private static ScriptCache cache = ScriptCache.defaultCache();
     static   Boolean hasError = false;
     static  Boolean hasRuntimeError = false;
 
     public static void main(String[] args) throws  IOException{
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean bytecode = arguments.remove("--vm");
+        if (arguments.remove("--jit")) interpreter.jit = new Jit();
+        if (arguments.remove("--no-cache")) cache = null;
+        String snapshot = option(arguments, "--snapshot");
+        String save = option(arguments, "--save-snapshot");
+        String profile = option(arguments, "--profile");
+        String metrics = option(arguments, "--metrics");
+        String maxStack = option(arguments, "--max-stack");
+
+        // snapshots, the profiler and metrics work on tree-walker objects, the VM has its own
+        if (arguments.size() > 1
+                || (bytecode && (snapshot != null || save != null || profile != null || metrics != null))
+                || (maxStack != null && !maxStack.matches("[1-9][0-9]{0,6}"))
+                || (save != null && arguments.isEmpty())) {
+            System.out.println("Usage: jlox [--vm | --jit] [--max-stack megabytes] [--no-cache] [--snapshot file]"
+                    + " [--profile file] [--metrics file] [script]");
+            System.out.println("       jlox [--jit] [--no-cache] --save-snapshot file prelude");
             System.exit(1);
-        } else  if (args.length == 1) {
-            runFile(args[0]);
+        }
+        if (bytecode) vm = maxStack == null ? new VM() : new VM(Long.parseLong(maxStack) << 20);
+        if (bytecode || maxStack == null) {
+            start(arguments, snapshot, save, profile, metrics);
+            return;
+        }
+        // The VM keeps its Lox stack on the heap, the tree-walker recurses on the
+        // Java stack, so it gets a thread with a stack of the size asked for.
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            start(arguments, snapshot, save, profile, metrics);
+            return null;
+        });
+        new Thread(null, task, "main", Long.parseLong(maxStack) << 20).start();
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw (Error) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void start(List<String> arguments, String snapshot, String save, String profile, String metrics)
+            throws IOException {
+        if (profile != null) {
+            profile(Paths.get(profile), arguments.isEmpty() ? "<prompt>" : Paths.get(arguments.get(0)).getFileName().toString());
+        }
+        if (metrics != null) metrics(Paths.get(metrics));
+        if (snapshot != null) {
+            try {
+                Snapshot.restore(interpreter, Paths.get(snapshot));
+            } catch (IOException e) {
+                System.err.println("Could not load snapshot " + snapshot + ": " + e.getMessage());
+                System.exit(66);
+            }
+        }
+        if (arguments.size() == 1) {
+            runFile(arguments.get(0));
         } else {
             runPrompt();
         }
+        // the prelude ran without errors, runFile exits otherwise
+        if (save != null) Snapshot.save(interpreter, Paths.get(save));
+    }
+
+    // Samples the Lox stack until the JVM exits, however the script ends, and
+    // then writes the collapsed stacks to file.
+    private static void profile(Path file, String root) {
+        Profiler profiler = new Profiler(root);
+        interpreter.profiler = profiler;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Writer out = Files.newBufferedWriter(file)) {
+                profiler.finish(out);
+            } catch (IOException e) {
+                System.err.println("Could not write profile " + file + ": " + e.getMessage());
+            }
+        }));
+        profiler.start();
+    }
+
+    // Counts while the script runs, readable over JMX meanwhile, and writes
+    // the counters to file as JSON when the JVM exits.
+    private static void metrics(Path file) {
+        Metrics metrics = new Metrics();
+        interpreter.metrics = metrics;
+        try {
+            metrics.register();
+        } catch (JMException e) {
+            System.err.println("Could not register metrics with JMX: " + e.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.writeString(file, metrics.getReport());
+            } catch (IOException e) {
+                System.err.println("Could not write metrics " + file + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    // removes name and the value after it, returning the value
+    private static String option(List<String> arguments, String name) {
+        int index = arguments.indexOf(name);
+        if (index < 0) return null;
+        arguments.remove(index);
+        if (index == arguments.size()) return null;
+        return arguments.remove(index);
     }
 
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        Charset charset = Charset.defaultCharset();
+        String key = cache == null ? null : ScriptCache.key(file, charset);
+        AstReader compiled = key == null ? null : cache.open(key);
+        if (compiled != null) {
+            runCompiled(compiled);
+        } else if (Parser.parsesInParallel(Files.size(file))) {
+            // the parallel parser needs every token up front, so a big script is read whole
+            // rather than streamed; decoding replaces bad input just as MappedReader does
+            String source = new String(Files.readAllBytes(file), charset);
+            runStream(new Scanner(source).scan(), key == null ? null : cache.create(key));
+        } else {
+            try (MappedReader reader = new MappedReader(file, charset)) {
+                runStream(new Scanner(reader).tokens(), key == null ? null : cache.create(key));
+            }
+        }
         if(hasError) System.exit(65);
     }
 
+    // Each top-level declaration runs once it has been parsed and resolved, while
+    // the rest of the file is still unread, or for a big file read whole, still
+    // being parsed or parsed in parallel already. After a syntax or resolution error
+    // nothing more runs but the rest is still parsed to report its errors; a
+    // runtime error stops everything. The resolved declarations go to the cache
+    // entry, which is only kept if the whole script compiled.
+    private static void runStream(TokenStream tokens, ScriptCache.Entry entry) {
+        Parser parser = new Parser(tokens);
+        Resolver resolver = new Resolver();
+        try {
+            while (parser.hasNext()) {
+                Stmt statement = parser.next();
+                if (hasError) continue;
+
+                List<Stmt> statements = List.of(statement);
+                resolver.resolve(statements);
+                if (hasError) continue;
+
+                if (entry != null) entry.write(statement);
+                execute(statements);
+                if (hasError) return;
+            }
+            if (entry != null && !hasError) {
+                entry.commit();
+                entry = null;
+            }
+        } finally {
+            if (entry != null) entry.abort();
+        }
+    }
+
+    // a script from the cache skips the front end, its tree is already resolved
+    private static void runCompiled(AstReader compiled) throws IOException {
+        while (compiled.hasNext()) {
+            execute(List.of(compiled.next()));
+            if (hasError) return;
+        }
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (vm != null) {
+            if (vm.interpret(statements) == VM.InterpretResult.RUNTIME_ERROR) hasError = true;
+        } else {
+            try {
+                interpreter.interpret(statements);
+            } catch (StackOverflowError e) {
+                System.err.println("Stack overflow, run with a larger --max-stack or with --vm for deeper recursion.");
+                hasError = true;
+            }
+        }
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input =  new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -50,21 +241,17 @@ public class Lox {
 
     private static void run(String source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        for(Token token: tokens){
-            System.out.println(token);
-        }
-
-        Parser parser =  new Parser(tokens);
+        Parser parser =  new Parser(scanner.scan());
         List<Stmt> statements = parser.parse();
+        // stop on syntax errors, the parser leaves nulls where declarations failed
+        if (hasError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
         if (hasError) return;
         if (hasRuntimeError) System.exit(79);
 
-        interpreter.interpret(statements);
+        execute(statements);
     }
 
     // ERROR HANDLING
@@ -73,16 +260,16 @@ public class Lox {
         hasError = true;
     }
 
-    static void error(int  line, String message ){
+    public static void error(int  line, String message ){
         report(line," ",message);
     }
 
     public static void runtimeError(RuntimeError error) {
         System.out.println(
                 error.getMessage() +
-                        "\nline["+error.token.line.toString() + "]\n[start:"+
-                        error.token.startOffset.toString() +
-                        "- end:" +error.token.endOffset.toString()+ "]\n");
+                        "\nline["+error.token.line + "]\n[start:"+
+                        error.token.startOffset +
+                        "- end:" +error.token.endOffset+ "]\n");
         hasError = true;
     }
 }
@@ -1,21 +1,49 @@
 package com.interpreters.lox;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements  LoxCallable{
+    private static final VarHandle FIELD_COUNT;
+
+    static {
+        try {
+            FIELD_COUNT = MethodHandles.lookup().findVarHandle(LoxClass.class, "fieldCount", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
-    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    final Map<Symbol, LoxFunction> methods;
+    // looked up once, classes are immutable after creation
+    private final LoxFunction initializer;
+    // root of the transition tree for this class's instances
+    final Shape shape = new Shape(this);
+    // fields the largest instance so far has had, used to size new instances;
+    // a prelude's classes get instances from every execution at once
+    volatile int fieldCount = 0;
+    public LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
+        this.initializer = findMethod(Symbol.INIT);
+    }
+
+    // raises fieldCount to size, unless another instance got it there first
+    void fitFields(int size) {
+        int count;
+        while ((count = fieldCount) < size && !FIELD_COUNT.compareAndSet(this, count, size)) {
+        }
     }
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
+    LoxFunction findMethod(Symbol name) {
+        LoxFunction method = methods.get(name);
+        if (method != null) {
+            return method;
         }
         if (superclass != null) {
             return superclass.findMethod(name);
@@ -30,7 +58,6 @@ public class LoxClass implements  LoxCallable{
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
@@ -38,9 +65,8 @@ public class LoxClass implements  LoxCallable{
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
        LoxInstance instance =  new LoxInstance(this);
-       LoxFunction initializer = findMethod("init");
        if (initializer != null ){
-           initializer.bind(instance).call(interpreter,arguments);
+           initializer.callOn(interpreter, instance, arguments);
        }
        return instance;
     }
@@ -0,0 +1,265 @@
+package com.interpreters.lox;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs Lox scripts for Java code. Each run is an isolated execution with its
+// own interpreter, globals, output and errors, so any number can run at once
+// on their own threads. An engine can be given a prelude, run once when it is
+// created: every execution starts out seeing the prelude's globals, and a
+// script that assigns one gets its own copy. The classes, functions and other
+// objects the prelude created are shared by all executions, so they are
+// frozen once it has run: setting a field of an instance it made, or
+// assigning a variable one of its closures captured, is a runtime error.
+// Instances the executions make of its classes are their own as usual.
+//
+// A script that runs many times is compiled once and evaluated with different
+// bindings. Its tree is shared by every evaluation and keeps what they learn,
+// the specialized operators and inline caches, so later ones start warm.
+//
+// Untrusted scripts can be run under Limits, which every execution of the
+// engine gets afresh. The prelude itself always runs unlimited.
+public final class LoxEngine {
+    private final Map<Symbol, Object> prelude;
+    private final Limits limits;
+
+    public LoxEngine() {
+        this(Map.of(), Limits.NONE);
+    }
+
+    public LoxEngine(String prelude) {
+        Execution execution = new Execution(Map.of(), Limits.NONE);
+        Result result = execution.run(prelude);
+        if (!result.succeeded()) {
+            throw new IllegalArgumentException("Prelude failed: " + String.join("; ", result.errors()));
+        }
+        Map<Symbol, Object> globals = execution.interpreter.globals.values();
+        freeze(globals.values());
+        this.prelude = Collections.unmodifiableMap(new HashMap<>(globals));
+        this.limits = Limits.NONE;
+    }
+
+    // freezes the instances and captured frames reachable from values
+    private static void freeze(Collection<Object> values) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Object> pending = new ArrayList<>(values);
+        while (!pending.isEmpty()) {
+            Object object = pending.remove(pending.size() - 1);
+            if (object == null || !seen.add(object)) continue;
+            if (object instanceof LoxInstance instance) {
+                instance.frozen = true;
+                pending.add(instance.klass);
+                for (int offset = 0; offset < instance.shape.size; offset++) pending.add(instance.valueAt(offset));
+            } else if (object instanceof LoxFunction function) {
+                // the outermost environment is the prelude's globals, which no execution writes
+                if (function.closure.enclosing != null) pending.add(function.closure);
+                pending.add(function.receiver);
+            } else if (object instanceof LoxClass klass) {
+                pending.add(klass.superclass);
+                pending.addAll(klass.methods.values());
+            } else if (object instanceof Environment environment) {
+                environment.frozen = true;
+                if (environment.enclosing.enclosing != null) pending.add(environment.enclosing);
+                for (int slot = 0; slot < environment.size(); slot++) pending.add(environment.getAt(0, slot));
+            }
+        }
+    }
+
+    private LoxEngine(Map<Symbol, Object> prelude, Limits limits) {
+        this.prelude = prelude;
+        this.limits = limits;
+    }
+
+    // this engine, prelude included, with every execution held to limits
+    public LoxEngine withLimits(Limits limits) {
+        return new LoxEngine(prelude, limits);
+    }
+
+    public Result run(String source) {
+        return new Execution(prelude, limits).run(source);
+    }
+
+    // runs each script on its own virtual thread, results are in the same order
+    public List<Result> runAll(List<String> sources) {
+        List<Future<Result>> futures = new ArrayList<>(sources.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String source : sources) futures.add(executor.submit(() -> run(source)));
+        }
+        List<Result> results = new ArrayList<>(futures.size());
+        for (Future<Result> future : futures) results.add(future.resultNow());
+        return results;
+    }
+
+    // scans, parses and resolves source, or throws IllegalArgumentException with its errors
+    public CompiledScript compile(String source) {
+        Errors errors = new Errors();
+        List<Stmt> statements = compile(source, errors);
+        if (!errors.messages.isEmpty()) {
+            throw new IllegalArgumentException("Script failed to compile: " + String.join("; ", errors.messages));
+        }
+        return new CompiledScript(statements);
+    }
+
+    public Result eval(CompiledScript script) {
+        return eval(script, Map.of());
+    }
+
+    // Runs script with each binding defined as a global. Numbers become Lox
+    // numbers; strings, booleans, null and values taken from an earlier result
+    // are passed as they are.
+    public Result eval(CompiledScript script, Map<String, ?> bindings) {
+        Execution execution = new Execution(prelude, limits);
+        bindings.forEach((name, value) -> execution.interpreter.globals.define(name, value(value)));
+        return execution.run(script.statements);
+    }
+
+    private static Object value(Object value) {
+        if (value == null || value instanceof Double || value instanceof String || value instanceof Boolean
+                || value instanceof LoxCallable || value instanceof LoxInstance) {
+            return value;
+        }
+        if (value instanceof Number number) return number.doubleValue();
+        throw new IllegalArgumentException("Cannot bind a " + value.getClass().getName() + " in Lox.");
+    }
+
+    private static List<Stmt> compile(String source, Errors errors) {
+        List<Stmt> statements = new Parser(new Scanner(source, errors).scan()).parse();
+        if (errors.messages.isEmpty()) new Resolver(errors).resolve(statements);
+        return statements;
+    }
+
+    // A resolved script, safe to evaluate from any number of threads at once.
+    public static final class CompiledScript {
+        private final List<Stmt> statements;
+
+        private CompiledScript(List<Stmt> statements) {
+            this.statements = List.copyOf(statements);
+        }
+    }
+
+    // How much one execution may do before it is stopped with a runtime error:
+    // steps, each loop iteration or call; memory, an estimate in bytes of the
+    // instances, fields and strings it creates; and time from its start, null
+    // for none. Compiled code is not used under those. Stack is the bytes of
+    // Java stack the execution runs on, on a thread of its own, which is what
+    // bounds how deep its Lox calls can nest; 0 runs it on the calling thread.
+    public record Limits(long steps, long memory, Duration timeout, long stack) {
+        public static final Limits NONE = new Limits(Long.MAX_VALUE, Long.MAX_VALUE, null, 0);
+
+        public Limits(long steps, long memory, Duration timeout) {
+            this(steps, memory, timeout, 0);
+        }
+
+        public Limits withSteps(long steps) {
+            return new Limits(steps, memory, timeout, stack);
+        }
+
+        public Limits withMemory(long memory) {
+            return new Limits(steps, memory, timeout, stack);
+        }
+
+        public Limits withTimeout(Duration timeout) {
+            return new Limits(steps, memory, timeout, stack);
+        }
+
+        public Limits withStack(long stack) {
+            return new Limits(steps, memory, timeout, stack);
+        }
+
+        // whether the execution needs a Budget, a stack alone doesn't
+        boolean budgeted() {
+            return steps != Long.MAX_VALUE || memory != Long.MAX_VALUE || timeout != null;
+        }
+    }
+
+    // What a script printed, the errors that stopped it, if any, and the globals
+    // it left behind. A script with a syntax or resolution error does not run.
+    public record Result(String output, List<String> errors, Map<String, Object> globals) {
+        public boolean succeeded() {
+            return errors.isEmpty();
+        }
+
+        // a global the script defined or was bound, not one it only read from the prelude
+        public Object get(String name) {
+            return globals.get(name);
+        }
+    }
+
+    private static class Errors implements ErrorReporter {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void error(int line, String message) {
+            messages.add("[line " + line + "] Error: " + message);
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            // natives report without a token
+            if (error.token == null) messages.add(error.getMessage());
+            else messages.add("[line " + error.token.line + "] " + error.getMessage());
+        }
+    }
+
+    private static final class Execution {
+        private final StringBuilder output = new StringBuilder();
+        private final Errors errors = new Errors();
+        private final Interpreter interpreter;
+        private final long stack;
+
+        Execution(Map<Symbol, Object> prelude, Limits limits) {
+            this.interpreter = new Interpreter(errors, line -> output.append(line).append('\n'), prelude);
+            if (limits.budgeted()) interpreter.budget = new Budget(limits);
+            this.stack = limits.stack();
+        }
+
+        Result run(String source) {
+            List<Stmt> statements = compile(source, errors);
+            return run(errors.messages.isEmpty() ? statements : List.of());
+        }
+
+        Result run(List<Stmt> statements) {
+            if (stack == 0) {
+                interpret(statements);
+            } else {
+                Thread thread = Thread.ofPlatform().name("lox").stackSize(stack).start(() -> interpret(statements));
+                // the script's state is only read once it is done, however long waiting takes
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        thread.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            // Java sees Lox strings as Strings, never ropes, and names as Strings, never symbols
+            Map<Symbol, Object> values = interpreter.globals.values();
+            values.replaceAll((name, value) -> value instanceof Rope rope ? rope.toString() : value);
+            Map<String, Object> globals = new HashMap<>();
+            values.forEach((name, value) -> globals.put(name.name, value));
+            return new Result(output.toString(), List.copyOf(errors.messages), Collections.unmodifiableMap(globals));
+        }
+
+        private void interpret(List<Stmt> statements) {
+            try {
+                interpreter.interpret(statements);
+            } catch (StackOverflowError e) {
+                // runaway recursion ends the script, not the thread running it
+                errors.messages.add("Stack overflow, run with a larger Limits.stack for deeper recursion.");
+            }
+        }
+    }
+}
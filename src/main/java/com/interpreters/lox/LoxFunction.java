@@ -1,47 +1,141 @@
 package com.interpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class LoxFunction implements  LoxCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final boolean isInitializer;
+    // methods take `this` in slot 0 of their frame; receiver is set once bound
+    final boolean isMethod;
+    final LoxInstance receiver;
     LoxFunction(Stmt.Function declaration, Environment closure,
                 boolean isInitializer) {
+        this(declaration, closure, isInitializer, false, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure,
+                boolean isInitializer, boolean isMethod) {
+        this(declaration, closure, isInitializer, isMethod, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure,
+                        boolean isInitializer, boolean isMethod, LoxInstance receiver) {
         this.isInitializer = isInitializer;
         this.declaration = declaration;
         this.closure = closure;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
     }
     @Override
     public int arity() {
         return this.declaration.parameters.size();
     }
 
+    // only needed when a method is used as a value, direct calls go through callOn
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment,
-                isInitializer);
+        return new LoxFunction(declaration, closure,
+                isInitializer, true, instance);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return callOn(interpreter, receiver, arguments);
+    }
+
+    // entry point for JIT compiled callers, which already hold their arguments in an array
+    Object call(Interpreter interpreter, Object[] arguments) {
+        if (interpreter.profiler != null || interpreter.metrics != null) {
+            return callOn(interpreter, receiver, Arrays.asList(arguments));
+        }
+        Jit.Code code = compiled(interpreter);
+        Object result = code != null
+                ? code.invoke(interpreter, closure, receiver, arguments)
+                : interpret(interpreter, receiver, Arrays.asList(arguments));
+        return result instanceof TailCall call ? trampoline(interpreter, call) : result;
+    }
+
+    // calls this method with `this` bound to instance, without allocating a bound LoxFunction
+    Object callOn(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        if (interpreter.profiler != null || interpreter.metrics != null) {
+            return instrumented(interpreter, instance, arguments);
+        }
+        Jit.Code code = compiled(interpreter);
+        Object result;
+        if (code != null) {
+            result = code.invoke(interpreter, closure, instance, arguments.toArray());
+        } else {
+            // interpret, written out so a Lox call nests one Java frame less
+            Completion completion = interpreter.executeBlock(declaration.body, frame(instance, arguments));
+            result = isInitializer ? instance : completion == Completion.RETURN ? interpreter.returned : null;
+        }
+        return result instanceof TailCall call ? trampoline(interpreter, call) : result;
+    }
+
+    // kept apart so the uninstrumented path above stays as small as it was
+    private Object instrumented(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Profiler profiler = interpreter.profiler;
+        Metrics metrics = interpreter.metrics;
+        if (profiler != null) profiler.enter(declaration);
+        if (metrics != null) metrics.enter(declaration);
+        try {
+            Jit.Code code = compiled(interpreter);
+            Object result = code != null
+                    ? code.invoke(interpreter, closure, instance, arguments.toArray())
+                    : interpret(interpreter, instance, arguments);
+            return result instanceof TailCall call ? trampoline(interpreter, call) : result;
+        } finally {
+            if (metrics != null) metrics.exit();
+            if (profiler != null) profiler.exit();
+        }
+    }
+
+    private Jit.Code compiled(Interpreter interpreter) {
+        if (interpreter.jit == null || interpreter.budget != null || interpreter.metrics != null) return null;
+        return interpreter.jit.codeFor(declaration, isInitializer, isMethod);
+    }
+
+    // Runs the functions a call returned into one after another, each in a
+    // fresh environment while the one before becomes garbage, so tail calls
+    // take constant stack. The profiler and metrics see each replace the last.
+    static Object trampoline(Interpreter interpreter, TailCall call) {
+        for (;;) {
+            LoxFunction function = call.function;
+            if (interpreter.metrics != null) {
+                interpreter.metrics.exit();
+                interpreter.metrics.enter(function.declaration);
+            }
+            if (interpreter.profiler != null) {
+                interpreter.profiler.exit();
+                interpreter.profiler.enter(function.declaration);
+            }
+            Jit.Code code = function.compiled(interpreter);
+            Object result = code != null
+                    ? code.invoke(interpreter, function.closure, call.receiver, call.arguments.toArray())
+                    : function.interpret(interpreter, call.receiver, call.arguments);
+            if (!(result instanceof TailCall next)) return result;
+            call = next;
+        }
+    }
+
+    // runs the body once, returning a TailCall it ends with for the trampoline
+    private Object interpret(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Completion completion = interpreter.executeBlock(declaration.body, frame(instance, arguments));
+        if (isInitializer) return instance;
+        return completion == Completion.RETURN ? interpreter.returned : null;
+    }
+
+    private Environment frame(LoxInstance instance, List<Object> arguments) {
         Environment environment = new Environment(closure);
+        if (isMethod) environment.define(instance);
         for (int i = 0; i < declaration.parameters.size(); i++)
-            environment.define(declaration.parameters.get(i).lexeme,
-                    arguments.get(i));
-
-       try {
-           interpreter.executeBlock(declaration.body, environment);
-       } catch (Return returnValue){
-            if (isInitializer) return closure.getAt(0, "this");
-            return  returnValue.value;
-       }
-        return null;
+            environment.define(arguments.get(i));
+        return environment;
     }
 
     @Override
     public String toString() {
-        return "<fx "+this.declaration.functionName+ ">";
+        return "<fx "+this.declaration.functionName.lexeme+ ">";
     }
 }
@@ -1,28 +1,59 @@
 package com.interpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    // fields live in values at the offsets their shape gives them
+    Shape shape;
+    private Object[] values;
+    // set on what a LoxEngine prelude created, which every execution shares
+    boolean frozen = false;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.shape;
+        this.values = new Object[klass.fieldCount];
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+        return get(name, shape.lookup(name.symbol));
+    }
+
+    // reads a property that has already been looked up on this instance's shape
+    Object get(Token name, Shape.Property property) {
+        if (property.offset >= 0) return values[property.offset];
+        if (property.method != null) return property.method.bind(this);
         throw new RuntimeError(name,
                 "Undefined property '" + name.lexeme + "'.");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        set(name, shape.store(name.symbol), value);
+    }
+
+    // stores through a property from shape.store on this instance's shape
+    void set(Token name, Shape.Property property, Object value) {
+        if (frozen) {
+            throw new RuntimeError(name,
+                    "Cannot set '" + name.lexeme + "' on " + this + " from the prelude.");
+        }
+        store(property, value);
+    }
+
+    // set without the check, for filling in an instance being restored
+    void store(Shape.Property property, Object value) {
+        if (property.offset >= values.length) {
+            values = Arrays.copyOf(values, Math.max(property.shape.size, klass.fieldCount));
+            // later instances start out big enough for every field seen so far
+            klass.fitFields(property.shape.size);
+        }
+        values[property.offset] = value;
+        shape = property.shape;
+    }
+
+    Object valueAt(int offset) {
+        return values[offset];
     }
 
     @Override
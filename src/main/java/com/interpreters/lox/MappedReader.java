@@ -0,0 +1,69 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Decodes a file through memory-mapped windows, so reading a script copies
+// its bytes nowhere and maps at most one window of it at a time. Bad input is
+// replaced the same way new String(bytes, charset) does.
+final class MappedReader extends Reader {
+    private static final long WINDOW = 1 << 26;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long size;
+    // file offset of the mapped window
+    private long position;
+    private MappedByteBuffer window;
+    private boolean flushed = false;
+
+    MappedReader(Path path, Charset charset) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+    }
+
+    private void map(long from) throws IOException {
+        position = from;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, size - from));
+    }
+
+    // len must leave room for a surrogate pair, which the Scanner's window always does
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            boolean last = position + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, last);
+            if (out.position() > off) break;
+            if (!last && result.isUnderflow()) {
+                // carry a character split across the window edge into the next one
+                map(position + window.position());
+                continue;
+            }
+            if (flushed) return -1;
+            decoder.flush(out);
+            flushed = true;
+            if (out.position() == off) return -1;
+        }
+        return out.position() - off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
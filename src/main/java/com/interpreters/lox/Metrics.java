@@ -0,0 +1,165 @@
+package com.interpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Execution counters for one interpreter: for every function the calls, the
+// time spent in them and the instances and strings they created, and for
+// every line the statements run on it. The interpreter only calls in here when
+// metrics were asked for, and compiled code is not used then as it doesn't
+// report. Counters are written by the interpreter's thread alone; JMX may read
+// them from another while the run goes on, and sees them slightly stale.
+final class Metrics implements MetricsMXBean {
+    private static final class Counters {
+        final Stmt.Function declaration;
+        long calls = 0;
+        long nanos = 0;
+        long allocations = 0;
+        // time is taken from the outermost of the function's active calls, so recursion counts once
+        int active = 0;
+        long started;
+
+        Counters(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    private final Map<Stmt.Function, Counters> functions = new ConcurrentHashMap<>();
+    // hits per statement, turned into lines only for a report
+    private final Map<Stmt, long[]> statements = new ConcurrentHashMap<>();
+    private Counters[] stack = new Counters[64];
+    private int depth = 0;
+    // instances and strings created outside any function
+    private long topLevelAllocations = 0;
+
+    void enter(Stmt.Function declaration) {
+        Counters counters = functions.computeIfAbsent(declaration, Counters::new);
+        counters.calls++;
+        if (counters.active++ == 0) counters.started = System.nanoTime();
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = counters;
+    }
+
+    void exit() {
+        Counters counters = stack[--depth];
+        if (--counters.active == 0) counters.nanos += System.nanoTime() - counters.started;
+    }
+
+    void allocated() {
+        if (depth == 0) topLevelAllocations++;
+        else stack[depth - 1].allocations++;
+    }
+
+    void executed(Stmt statement) {
+        statements.computeIfAbsent(statement, key -> new long[1])[0]++;
+    }
+
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("com.interpreters.lox:type=Metrics"));
+    }
+
+    // REPORTS
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return byFunction(counters -> counters.calls);
+    }
+
+    @Override
+    public Map<String, Long> getNanos() {
+        return byFunction(counters -> counters.nanos);
+    }
+
+    @Override
+    public Map<String, Long> getAllocations() {
+        return byFunction(counters -> counters.allocations);
+    }
+
+    private Map<String, Long> byFunction(Function<Counters, Long> counter) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Counters counters : functions.values()) {
+            Token name = counters.declaration.functionName;
+            values.merge(name.lexeme + ":" + name.line, counter.apply(counters), Long::sum);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<Integer, Long> getLineHits() {
+        Map<Integer, Long> lines = new TreeMap<>();
+        statements.forEach((statement, hits) -> {
+            int line = line(statement);
+            if (line > 0) lines.merge(line, hits[0], Long::sum);
+        });
+        return lines;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder json = new StringBuilder("{\n  \"functions\": [");
+        String separator = "\n";
+        for (Counters counters : functions.values()) {
+            Token name = counters.declaration.functionName;
+            json.append(separator).append("    {\"name\": \"").append(name.lexeme)
+                    .append("\", \"line\": ").append(name.line)
+                    .append(", \"calls\": ").append(counters.calls)
+                    .append(", \"nanos\": ").append(counters.nanos)
+                    .append(", \"allocations\": ").append(counters.allocations).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ],\n  \"topLevelAllocations\": ").append(topLevelAllocations);
+        json.append(",\n  \"lines\": {");
+        separator = "\n";
+        for (Map.Entry<Integer, Long> line : getLineHits().entrySet()) {
+            json.append(separator).append("    \"").append(line.getKey()).append("\": ").append(line.getValue());
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    // The line a statement starts on, from the first token in it. Blocks are
+    // left out, their statements count for them, as are statements with no
+    // token in them at all, such as printing a literal.
+    private static int line(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.Expression s -> line(s.expression);
+            case Stmt.Print s -> line(s.expression);
+            case Stmt.Var s -> s.name.line;
+            case Stmt.If s -> line(s.condition);
+            case Stmt.While s -> line(s.condition);
+            case Stmt.Function s -> s.functionName.line;
+            case Stmt.Return s -> s.keyword.line;
+            case Stmt.Class s -> s.name.line;
+            default -> -1;
+        };
+    }
+
+    private static int line(Expr expr) {
+        return switch (expr) {
+            case Expr.Binary e -> first(line(e.left), e.operator);
+            case Expr.Call e -> first(line(e.callee), e.paren);
+            case Expr.Grouping e -> line(e.expression);
+            case Expr.Get e -> first(line(e.object), e.name);
+            case Expr.Set e -> first(line(e.object), e.name);
+            case Expr.Super e -> e.keyword.line;
+            case Expr.This e -> e.keyword.line;
+            case Expr.Logical e -> first(line(e.left), e.operator);
+            case Expr.Unary e -> e.operator.line;
+            case Expr.Ternary e -> first(line(e.expression), e.question_mark);
+            case Expr.Variable e -> e.name.line;
+            case Expr.Assign e -> e.name.line;
+            default -> -1;
+        };
+    }
+
+    private static int first(int line, Token next) {
+        return line > 0 ? line : next.line;
+    }
+}
@@ -0,0 +1,18 @@
+package com.interpreters.lox;
+
+import java.util.Map;
+
+// The counters of a run as JMX sees them. Functions are keyed by name:line,
+// the line they were declared on.
+public interface MetricsMXBean {
+    Map<String, Long> getCalls();
+
+    Map<String, Long> getNanos();
+
+    Map<String, Long> getAllocations();
+
+    Map<Integer, Long> getLineHits();
+
+    // the same counters as JSON
+    String getReport();
+}
@@ -3,18 +3,60 @@ package com.interpreters.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 public class Parser {
-    private final List<Token> tokens;
+    // scripts with at least this many tokens are parsed in chunks of about CHUNK tokens
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK = 1 << 13;
+
+    private final TokenStream tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
+    // a chunk parser stops at end and records errors instead of reporting them
+    private final int end;
+    private final boolean chunk;
+    private boolean failed = false;
+    private final List<Stmt> statements = new ArrayList<>();
+    // statements parsed in parallel before the first next(), handed out in order
+    private List<Stmt> ahead = List.of();
+    private int served = 0;
+    private boolean started = false;
     private static class ParseError extends RuntimeException {}
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens) {
+        this.tokens = tokens;
+        this.reporter = tokens.reporter();
+        this.end = Integer.MAX_VALUE;
+        this.chunk = false;
+    }
+
+    private Parser(TokenStream tokens, int start, int end) {
         this.tokens = tokens;
+        this.reporter = tokens.reporter();
+        this.current = start;
+        this.end = end;
+        this.chunk = true;
+    }
+
+    // whether a source of this many characters, at about five a token, is
+    // worth scanning whole before parsing so it can be parsed in parallel
+    static boolean parsesInParallel(long characters) {
+        return characters / 5 >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    private boolean parallel() {
+        return current == 0 && tokens.isComplete() && tokens.size() >= PARALLEL_THRESHOLD
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
     }
 
     List<Stmt> parse(){
+        if (parallel()) {
+            List<Stmt> statements = parseChunks();
+            if (statements != null) return statements;
+        }
         List<Stmt> statements = new ArrayList<>();
         while(isNotAtEnd()){
             statements.add(declaration());
@@ -22,6 +64,101 @@ public class Parser {
         return statements;
     }
 
+    // PARALLEL PARSING
+    // The tokens are cut before top-level `fun` and `class` declarations and the
+    // chunks parsed on the common pool, then joined in source order. A valid
+    // script parses to the same statements either way. If any chunk hits an
+    // error, or parses past its end, the chunks are thrown away and the script
+    // is parsed sequentially, so errors are reported exactly as parse() would.
+    // Both parse() and next() do this, but only once every token is scanned:
+    // a streamed file has to be read whole first, see Lox.runFile.
+
+    private List<Stmt> parseChunks() {
+        List<Integer> cuts = cuts();
+        if (cuts.size() < 3) return null;
+
+        List<ForkJoinTask<Parser>> tasks = new ArrayList<>(cuts.size() - 1);
+        for (int i = 0; i < cuts.size() - 1; i++) {
+            // each chunk interns its own lexemes, the stream's table is not shared
+            Parser parser = new Parser(tokens.view(), cuts.get(i), cuts.get(i + 1));
+            tasks.add(ForkJoinPool.commonPool().submit(parser::parseChunk, parser));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        boolean clean = true;
+        for (ForkJoinTask<Parser> task : tasks) {
+            Parser parser = task.join();
+            clean &= !parser.failed && parser.current == parser.end;
+            if (clean) statements.addAll(parser.statements);
+        }
+        if (!clean) return null;
+        current = cuts.get(cuts.size() - 1);
+        return statements;
+    }
+
+    private void parseChunk() {
+        while (!failed && current < end && isNotAtEnd()) {
+            statements.add(declaration());
+        }
+    }
+
+    // indices of the top-level declarations that start a chunk, then the EOF index
+    private List<Integer> cuts() {
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        int depth = 0;
+        int last = 0;
+        int size = tokens.size() - 1;
+        for (int i = 0; i < size; i++) {
+            switch (tokens.type(i)) {
+                case LEFT_BRACE, LEFT_PAREN -> depth++;
+                case RIGHT_BRACE, RIGHT_PAREN -> depth--;
+                case FUN, CLASS -> {
+                    if (depth == 0 && i - last >= CHUNK && isDeclarationEnd(i - 1)) {
+                        cuts.add(i);
+                        last = i;
+                    }
+                }
+            }
+        }
+        cuts.add(size);
+        return cuts;
+    }
+
+    private boolean isDeclarationEnd(int index) {
+        TokenType type = tokens.type(index);
+        return type == TokenType.SEMICOLON || type == TokenType.RIGHT_BRACE;
+    }
+
+    // One top-level declaration at a time, so a streamed source can run as it
+    // is read. A large source that is already scanned is parsed in parallel
+    // up front and its statements handed out from there; if that fails, the
+    // declarations are parsed one at a time as usual, errors and all.
+    boolean hasNext() {
+        start();
+        return served < ahead.size() || isNotAtEnd();
+    }
+
+    Stmt next() {
+        start();
+        if (served < ahead.size()) {
+            // handed out statements belong to the caller, don't keep them alive
+            return ahead.set(served++, null);
+        }
+        Stmt statement = declaration();
+        tokens.release(current);
+        return statement;
+    }
+
+    private void start() {
+        if (started) return;
+        started = true;
+        if (parallel()) {
+            List<Stmt> statements = parseChunks();
+            if (statements != null) ahead = statements;
+        }
+    }
+
     private Stmt declaration() {
         try {
             if(match(TokenType.CLASS)) return classDeclaration();
@@ -36,32 +173,32 @@ public class Parser {
 
     private Stmt classDeclaration() {
         Token name = consume(TokenType.IDENTIFIER,"Expect class name.");
-        consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
 
         Expr.Variable superclass = null;
         if (match(TokenType.LESS)) {
-            consume(TokenType.IDENTIFIER, "Expected a superclass name.");
+            expect(TokenType.IDENTIFIER, "Expected a superclass name.");
             superclass = new Expr.Variable(previous());
         }
+        expect(TokenType.LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(TokenType.RIGHT_BRACE) && isNotAtEnd()) {
             methods.add(function("method"));
         }
-        consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+        expect(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
         return new Stmt.Class(name, superclass,methods);
     }
 
 
     private Stmt varDeclaration() {
-        Token name  =  consume(TokenType.VAR,"Expected a variable name");
+        Token name  =  consume(TokenType.IDENTIFIER,"Expected a variable name");
 
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
         }
 
-       consume(TokenType.SEMICOLON, "Expected a ',' after a variable declaration");
+       expect(TokenType.SEMICOLON, "Expected a ',' after a variable declaration");
        return new Stmt.Var(name,initializer);
     }
     
@@ -73,7 +210,7 @@ public class Parser {
     private Expr assignment(){
         Expr  expr = or();
         if ( match(TokenType.EQUAL)) {
-            Token equals = previous();
+            int equals = current - 1;
             Expr value = assignment();
             if (expr instanceof Expr.Variable variable) {
                 Token name = variable.name;
@@ -81,7 +218,7 @@ public class Parser {
             } else if (expr instanceof Expr.Get get) {
                 return new Expr.Set(get.object, get.name, value);
             }
-            throw error(equals, "Invalid assignment target.");
+            throw error(tokens.token(equals), "Invalid assignment target.");
         }
         return expr;
     }
@@ -122,12 +259,12 @@ public class Parser {
         if (!check(TokenType.SEMICOLON)){
             value =  expression();
         }
-        consume(TokenType.SEMICOLON,"Expect ';' after return value.");
+        expect(TokenType.SEMICOLON,"Expect ';' after return value.");
         return new Stmt.Return(keyword,value);
     }
 
     private Stmt forStatement() {
-        consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
             initializer = null;
@@ -140,12 +277,12 @@ public class Parser {
         if (!check(TokenType.SEMICOLON)) {
             condition = expression();
         }
-        consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+        expect(TokenType.SEMICOLON, "Expect ';' after loop condition.");
         Expr increment = null;
         if (!check(TokenType.RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
         Stmt body = statement();
 
         if (increment != null) {
@@ -156,22 +293,26 @@ public class Parser {
         }
         if (condition == null) condition = new Expr.Literal(true);
         body = new Stmt.While(condition, body);
+
+        if (initializer != null) {
+            body = new Stmt.Block(Arrays.asList(initializer, body));
+        }
         return body;
     }
 
     private Stmt whileStatement() {
-        consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'while'");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN,"Expect ')' after condition");
+        expect(TokenType.RIGHT_PAREN,"Expect ')' after condition");
         Stmt body = statement();
         return new Stmt.While(condition,body);
     }
 
 
     private Stmt ifStatement() {
-        consume(TokenType.LEFT_PAREN," Excepted a '(' after an 'if'");
+        expect(TokenType.LEFT_PAREN," Excepted a '(' after an 'if'");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN,"Expected a ')' after an if condition");
+        expect(TokenType.RIGHT_PAREN,"Expected a ')' after an if condition");
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
         if (match(TokenType.ELSE)){
@@ -182,19 +323,19 @@ public class Parser {
 
     private Stmt printStatement() {
         Expr value = expression();
-        consume(TokenType.SEMICOLON,"Expect ';' after value.");
+        expect(TokenType.SEMICOLON,"Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
     private Stmt expressionStatement(){
         Expr value = expression();
-        consume(TokenType.SEMICOLON,"Expect ';' after expression.");
+        expect(TokenType.SEMICOLON,"Expect ';' after expression.");
         return new Stmt.Expression(value);
     }
 
     private Stmt.Function function(String kind) {
         Token name = consume(TokenType.IDENTIFIER,"Expect "+ kind + " name.");
-        consume(TokenType.LEFT_PAREN, "Expect '(' after "+ kind + " name.");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after "+ kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if( !check(TokenType.RIGHT_PAREN)){
             do {
@@ -205,8 +346,8 @@ public class Parser {
                 parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
             } while(match(TokenType.COMMA));
         }
-        consume(TokenType.RIGHT_PAREN,"Expect ')' after parameters");
-        consume(TokenType.LEFT_BRACE,"Expect '{' before "+ kind + " body.");
+        expect(TokenType.RIGHT_PAREN,"Expect ')' after parameters");
+        expect(TokenType.LEFT_BRACE,"Expect '{' before "+ kind + " body.");
         List<Stmt> body = block();
         return  new Stmt.Function(name,parameters,body);
     }
@@ -217,7 +358,7 @@ public class Parser {
         while(!check(TokenType.RIGHT_BRACE) && isNotAtEnd()){
             statements.add(declaration());
         }
-        consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+        expect(TokenType.RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
     
@@ -253,7 +394,7 @@ public class Parser {
 
     private Expr factor() {
         Expr expr = unary();
-        while (match(TokenType.SLASH, TokenType.STAR)) {
+        while (match(TokenType.SLASH, TokenType.STAR, TokenType.MODULUS)) {
             Token operator = previous();
             Expr right = unary();
             expr = new Expr.Binary(expr, operator, right);
@@ -306,7 +447,7 @@ public class Parser {
         if (match(TokenType.NIL)) return new Expr.Literal(null);
         if (match(TokenType.SUPER)) {
             Token keyword =  previous();
-            consume(TokenType.DOT, "Expected '.' after a super keyword");
+            expect(TokenType.DOT, "Expected '.' after a super keyword");
             Token method = consume(TokenType.IDENTIFIER, "Expected superclass method name.");
             return new Expr.Super(keyword,method);
         }
@@ -315,11 +456,11 @@ public class Parser {
         if (match(TokenType.NUMBER,TokenType.STRING)) {
             // we already consumed the token to figure out if it is a string/number
             // hence why we started from previous token literal
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
         if (match(TokenType.LEFT_PAREN)) {
             Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression");
+            expect(TokenType.RIGHT_PAREN, "Expect ')' after expression");
             return new Expr.Grouping(expr);
         }
         throw error(peek(),"Expect expression.");
@@ -330,56 +471,74 @@ public class Parser {
     private void synchronize(){
         advance();
         while(isNotAtEnd()){
-            if (previous().type == TokenType.SEMICOLON) return;
-            switch (peek().type){
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
+            switch (tokens.type(current)){
                 case CLASS,FUN,VAR,FOR,IF,WHILE,PRINT,RETURN -> {
                     return;
                 }
             }
+            advance();
         }
-        advance();
     }
 
+    // the consumed token is only materialized for callers that keep it
     private Token consume(TokenType type, String message){
-        if (check(type)) return advance();
+        if (check(type)) {
+            advance();
+            return previous();
+        }
+        throw error(peek(), message);
+    }
+
+    private void expect(TokenType type, String message){
+        if (check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token.line,message);
+        if (chunk) failed = true;
+        else reporter.error(token.line,message);
         return new ParseError();
     }
 
-    private Boolean match(TokenType... types) {
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
+    }
+
+    private boolean match(TokenType first, TokenType second) {
+        return match(first) || match(second);
+    }
+
+    private boolean match(TokenType... types) {
         for(TokenType type: types){
-            if(check(type)) {
-                advance();
-                return true;
-            }
+            if(match(type)) return true;
         }
         return false;
     }
 
-    private Token advance(){
+    private void advance(){
         if (isNotAtEnd()) current++;
-        return previous();
     }
 
     private boolean isNotAtEnd(){
-        return peek().type != TokenType.EOF;
+        return tokens.type(current) != TokenType.EOF;
     }
 
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private boolean check(TokenType type) {
-        if(isNotAtEnd()) return  false;
-        return  peek().type  == type;
+        return tokens.type(current) == type && type != TokenType.EOF;
     }
 
 }
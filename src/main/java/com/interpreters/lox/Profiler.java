@@ -0,0 +1,90 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// A sampling profiler for Lox code. The interpreter pushes each function it
+// calls onto a stack of its own, and a background thread copies that stack
+// every INTERVAL_MILLIS and counts how often each one was seen. The counts
+// come out as collapsed stacks, one line per stack with frames from the
+// outermost, which flamegraph.pl and speedscope read:
+//
+//   fib.lox;main:12;fib:1;fib:1 42
+//
+// A frame is a function's name and the line it was declared on. The sampler
+// reads the stack without locking, so once in a while a sample mixes frames
+// from before and after a call; the counts are statistical anyway.
+final class Profiler {
+    private static final long INTERVAL_MILLIS = 1;
+
+    private final String root;
+    // written only by the interpreter's thread, depth publishes frames to the sampler
+    private Stmt.Function[] frames = new Stmt.Function[64];
+    private volatile int depth = 0;
+    // read and written only by the sampler until it has stopped
+    private final Map<String, Integer> samples = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean stopped = false;
+
+    // root names the outermost frame, the script being run
+    Profiler(String root) {
+        this.root = root;
+        this.sampler = Thread.ofPlatform().name("lox-profiler").daemon().unstarted(this::sample);
+    }
+
+    void start() {
+        sampler.start();
+    }
+
+    void enter(Stmt.Function function) {
+        int top = depth;
+        if (top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+        frames[top] = function;
+        depth = top + 1;
+    }
+
+    void exit() {
+        depth = depth - 1;
+    }
+
+    private void sample() {
+        StringBuilder stack = new StringBuilder();
+        while (!stopped) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            // depth first: reading it makes the frames written before it visible
+            int top = depth;
+            Stmt.Function[] frames = this.frames;
+            stack.setLength(0);
+            stack.append(root);
+            for (int i = 0; i < Math.min(top, frames.length); i++) {
+                Stmt.Function function = frames[i];
+                if (function == null) continue;
+                Token name = function.functionName;
+                stack.append(';').append(name.lexeme).append(':').append(name.line);
+            }
+            samples.merge(stack.toString(), 1, Integer::sum);
+        }
+    }
+
+    // stops sampling and writes what it saw
+    void finish(Writer out) throws IOException {
+        stopped = true;
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<String, Integer> sample : samples.entrySet()) {
+            out.write(sample.getKey() + " " + sample.getValue() + "\n");
+        }
+        out.flush();
+    }
+}
@@ -20,14 +20,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS,
     }
 
+    // a local's position in its scope's environment and whether its initializer has run
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
     private  ClassType currentClass = ClassType.NONE;
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String,Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String,Local>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private final ErrorReporter reporter;
 
-    Resolver(Interpreter interpreter){
-        this.interpreter = interpreter;
+    Resolver() {
+        this(Lox.CONSOLE);
+    }
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
     }
 
     @Override
@@ -68,25 +82,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword.line,
+            reporter.error(expr.keyword.line,
                     expr.keyword.lexeme + " Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword.line,
+            reporter.error(expr.keyword.line,
                     expr.keyword.lexeme + " Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = depthOf(expr.keyword.lexeme);
+        expr.thisDepth = depthOf("this");
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(
+            reporter.error(
                     expr.keyword.line,
                     expr.keyword.lexeme + " Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = depthOf(expr.keyword);
+        if (expr.depth != -1) expr.slot = slotOf(expr.keyword, expr.depth);
         return null;
     }
     @Override
@@ -115,28 +131,40 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
-                scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name.line,
+                scopes.peek().containsKey(expr.name.lexeme) &&
+                !scopes.peek().get(expr.name.lexeme).defined) {
+            reporter.error(expr.name.line,
                     "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if (expr.depth != -1) expr.slot = slotOf(expr.name, expr.depth);
         return null;
     }
 
 
-    private void resolveLocal(Expr expr, Token name) {
+    // number of scopes between the innermost one and where `name` is declared, -1 for a global
+    private int depthOf(Token name) {
+        return depthOf(name.lexeme);
+    }
+
+    private int depthOf(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name)) {
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme).slot;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.right);
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if (expr.depth != -1) expr.slot = slotOf(expr.name, expr.depth);
         return null;
     }
 
@@ -163,17 +191,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
+    }
+
+    // `this` and `super` always occupy slot 0 of the environment they live in
+    private void declareSynthetic(String name) {
+        Local local = new Local(scopes.peek().size());
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+        Map<String, Local> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name.line,
+            reporter.error(name.line,
                     name.lexeme + "Already variable with this name in this scope.");
+            return;
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.lexeme, new Local(scope.size()));
     }
 
     @Override
@@ -233,6 +269,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
         beginScope();
+        // methods get their receiver in slot 0 of their own frame, ahead of the parameters
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) declareSynthetic("this");
         for (Token param : function.parameters) {
             declare(param);
             define(param);
@@ -245,16 +283,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(
+            reporter.error(
                     stmt.keyword.line,
                     stmt.keyword.lexeme +" Can't return from top-level code.");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword.line,
+                reporter.error(stmt.keyword.line,
                 stmt.keyword.lexeme + " Can't return a value from an initializer.");
             }
             resolve(stmt.value);
+            // the call is the last thing the function does, its frame can go first
+            if (currentFunction != FunctionType.NONE && stmt.value instanceof Expr.Call) stmt.tail = true;
         }
         return null;
     }
@@ -270,7 +310,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // prevent cyclic inheritance
         if (stmt.superclass != null &&
                 stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
-            Lox.error(stmt.superclass.name.line, stmt.superclass.name.lexeme + " A class can't inherit from itself.");
+            reporter.error(stmt.superclass.name.line, stmt.superclass.name.lexeme + " A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -280,12 +320,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            declareSynthetic("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods){
             FunctionType declaration = FunctionType.METHOD;
             if (method.functionName.lexeme.equals("init")) {
@@ -294,7 +331,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method,declaration);
         }
 
-        endScope();
         if (stmt.superclass != null) endScope();
         currentClass = enclosingClass;
         return null;
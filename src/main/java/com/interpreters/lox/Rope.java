@@ -0,0 +1,94 @@
+package com.interpreters.lox;
+
+import java.util.ArrayDeque;
+
+// A long string made by +, kept as its two halves until something needs its
+// characters: printing, comparing, hashing or handing it to Java, which all go
+// through toString. Appending to a long string then costs a node rather than a
+// copy, so building one a piece at a time is linear. Lox strings are either a
+// String or a Rope; code that only needs to know a value is a string tests for
+// CharSequence.
+//
+// The first toString copies every piece into one String, keeps it and drops the
+// halves so the pieces can be collected. Ropes can be shared between threads
+// through a prelude: flat is always written before the halves are cleared, and
+// the halves are volatile, so whoever reads a cleared half also sees flat.
+final class Rope implements CharSequence {
+    // shorter results are copied right away, cheaper than a node and a later flatten
+    static final int MIN_LENGTH = 256;
+
+    private final int length;
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    // a length past Integer.MAX_VALUE wraps negative and fails in String concatenation as it always has
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH) return left.toString().concat(right.toString());
+        return new Rope(left, right, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        CharSequence left = this.left, right = this.right;
+        if (left == null || right == null) return flat;
+
+        // left to right with an explicit stack, ropes built by a loop are as deep as it ran
+        StringBuilder builder = new StringBuilder(length);
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(right);
+        pending.push(left);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (!(piece instanceof Rope rope)) {
+                builder.append(piece);
+                continue;
+            }
+            CharSequence ropeLeft = rope.left, ropeRight = rope.right;
+            if (ropeLeft == null || ropeRight == null) {
+                builder.append(rope.flat);
+            } else {
+                pending.push(ropeRight);
+                pending.push(ropeLeft);
+            }
+        }
+        String string = builder.toString();
+        flat = string;
+        this.right = null;
+        this.left = null;
+        return string;
+    }
+
+    // the same characters as another rope, as String.equals would say; a String is never equal to a Rope
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope rope && length == rope.length && toString().equals(rope.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,79 +1,135 @@
 package com.interpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class Scanner {
-    private final String source;
+    // The source is read through a window: buffer holds the characters from
+    // source offset base on, start and current index into it. A String source
+    // is one full window; a Reader is pulled from as tokens are asked for, and
+    // characters behind the tokens the parser still holds are dropped.
+    private static final int WINDOW = 8192;
+
+    private Reader reader;
+    private char[] buffer;
+    private int limit;
+    private int base = 0;
     private int start  = 0;
     private int current  = 0;
     private int line  =  1;
-    private final List<Token> tokens =   new  ArrayList<>();
-
-    private static final Map<String,TokenType> keywords;
+    private int questionLine = 0;
+    private boolean done = false;
+    private final TokenStream tokens;
+    // also where the parser reading these tokens reports
+    final ErrorReporter reporter;
 
-    private interface Yielder {
-        int yield();
+    Scanner (String source) {
+        this(source, Lox.CONSOLE);
+    }
 
-        void reset();
+    Scanner (String source, ErrorReporter reporter) {
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+        this.reporter = reporter;
+        this.tokens = new TokenStream(this, Math.max(16, limit / 5));
     }
 
-    private Yielder getIdx() {
-        return  new Yielder(){
-            int state = current;
-            @Override
-            public int yield() {
-                return state++;
-            }
+    Scanner (Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[WINDOW];
+        this.reporter = Lox.CONSOLE;
+        this.tokens = new TokenStream(this, WINDOW / 5);
+    }
 
-            @Override
-            public void reset() {
-                state = current;
-            }
-        };
-    }
-
-    static  {
-        keywords = new HashMap<>();
-        keywords.put("and",TokenType.AND);
-        keywords.put("or",TokenType.OR);
-        keywords.put("class",TokenType.CLASS);
-        keywords.put("else",TokenType.ELSE);
-        keywords.put("false",TokenType.FALSE);
-        keywords.put("for",TokenType.FOR);
-        keywords.put("fun",TokenType.FUN);
-        keywords.put("if",TokenType.IF);
-        keywords.put("nil",TokenType.NIL);
-        keywords.put("print",TokenType.PRINT);
-        keywords.put("return",TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this",TokenType.THIS);
-        keywords.put("true",TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while",TokenType.WHILE);
+    /* `scan` consume each character till EOF
+    * packing a token on discovery and ending it with EOF token
+    */
+    TokenStream scan() {
+        while (!done) scanNext();
+        return tokens;
     }
 
-    Scanner (String source) {
-        this.source =  source;
+    // the stream scanned on demand, as the parser reads it
+    TokenStream tokens() {
+        return tokens;
     }
 
-    /* `scanTokens` consume each character till EOF
-    * creating a token on discovery and ending it with EOF token
-    */
+    // the scanned tokens materialized as objects
     List<Token> scanTokens() {
-        while (!this.isAtEnd()){
+        return scan().toList();
+    }
+
+    // scans until at least one more token is in the stream
+    void scanNext() {
+        if (done) throw new IllegalStateException("Read past the end of the token stream.");
+        int size = tokens.size();
+        while (tokens.size() == size && !done) {
+            if (isAtEnd()) {
+                finish();
+                return;
+            }
             start = current;
             scanToken();
         }
-        int fileEndOffset = source.length();
-        tokens.add(new Token(TokenType.EOF,"",null,line,fileEndOffset-1, fileEndOffset));
-        return tokens;
+    }
+
+    private void finish() {
+        if (questionLine > 0) reporter.error(questionLine, "Unexpected character.");
+        int fileEndOffset = base + limit;
+        tokens.add(TokenType.EOF, fileEndOffset - 1, fileEndOffset, line);
+        done = true;
+    }
+
+    // SOURCE WINDOW
+
+    String text(int from, int to) {
+        return new String(buffer, from - base, to - from);
+    }
+
+    char charAt(int offset) {
+        return buffer[offset - base];
     }
 
     private boolean isAtEnd() {
-        return current >= this.source.length();
+        return current >= limit && !fill(1);
+    }
+
+    // makes count characters from current readable, false if the source ends first
+    private boolean fill(int count) {
+        try {
+            while (current + count > limit) {
+                if (reader == null) return false;
+                if (buffer.length - limit < WINDOW / 2) slide();
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    reader.close();
+                    reader = null;
+                } else {
+                    limit += read;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // drops the characters no unreleased token needs, growing if that frees too little
+    private void slide() {
+        int keep = tokens.retainedStart(base + start) - base;
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            base += keep;
+            limit -= keep;
+            start -= keep;
+            current -= keep;
+        }
+        if (buffer.length - limit < WINDOW / 2) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
     }
 
     private void scanToken(){
@@ -92,23 +148,34 @@ public class Scanner {
             case '%' -> addToken(TokenType.MODULUS);
             case '!' -> addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
             case '=' -> addToken(match( '=' )? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
-            case '<' -> addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
-            case '>' -> addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+            case '<' -> addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+            case '>' -> addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
             case '?' -> {
-                while (lookAhead() != ':' && !isAtEnd()) {}
-                if (isAtEnd())  { Lox.error(line, "Unexpected character.");}
+                // a '?' needs a ':' somewhere after it, reported at the end if not
+                if (questionLine == 0) questionLine = line;
                 addToken(TokenType.QUESTION);
             }
-            case ':' -> addToken(TokenType.COLON);
+            case ':' -> {
+                questionLine = 0;
+                addToken(TokenType.COLON);
+            }
             case '/' -> {
                 if(match('/')) {
                     while (peek() != '\n' && !isAtEnd()) advance();
                     return;
                 }
                 if (match('*')) {
-                    while (peek() != '*') advance();
+                    // stop at the end too, the window has nothing past it
+                    while (peek() != '*' && !isAtEnd()) {
+                        if (peek() == '\n') line++;
+                        advance();
+                    }
+                    if (isAtEnd()) {
+                        reporter.error(line, "Unterminated comment.");
+                        return;
+                    }
                     advance();
-                    if (!match('/')){Lox.error(line, "Unexpected character.");}
+                    if (!match('/')){reporter.error(line, "Unexpected character.");}
                     return;
                 }
                 addToken(TokenType.SLASH);
@@ -124,7 +191,7 @@ public class Scanner {
                 if(isDigit(c)){number();}
                 else if (isAlpha(c)) {identifier();}
                 else {
-                    Lox.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
                 }
             }
         }
@@ -133,10 +200,50 @@ public class Scanner {
     // consumes an identifier 
     private void identifier() {
         while(isAlphanumeric(peek())) advance();
-        String text = source.substring(start,current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        addToken(keyword());
+    }
+
+    // matches keywords on the characters in place so identifiers are never copied
+    private TokenType keyword() {
+        switch (buffer[start]) {
+            case 'a': return checkKeyword(1, "nd", TokenType.AND);
+            case 'c': return checkKeyword(1, "lass", TokenType.CLASS);
+            case 'e': return checkKeyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return checkKeyword(2, "lse", TokenType.FALSE);
+                        case 'o': return checkKeyword(2, "r", TokenType.FOR);
+                        case 'u': return checkKeyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", TokenType.IF);
+            case 'n': return checkKeyword(1, "il", TokenType.NIL);
+            case 'o': return checkKeyword(1, "r", TokenType.OR);
+            case 'p': return checkKeyword(1, "rint", TokenType.PRINT);
+            case 'r': return checkKeyword(1, "eturn", TokenType.RETURN);
+            case 's': return checkKeyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return checkKeyword(2, "is", TokenType.THIS);
+                        case 'r': return checkKeyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", TokenType.VAR);
+            case 'w': return checkKeyword(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + offset + i] != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     // assert if a char is alphanumeric
@@ -152,36 +259,26 @@ public class Scanner {
     // check the current character
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
     
     // moves the offset of the source by one
     private char advance() {
         current++;
-        return  source.charAt(current-1); // picking the character at one step back
-    }
-
-    // perform a character lookahead 
-    private  char lookAhead(){
-        if (isAtEnd()) return '\0';
-        return  source.charAt(getIdx().yield());
+        return  buffer[current-1]; // picking the character at one step back
     }
 
     // matchchecks if current char is equal to the expected and advance if true.
     private boolean match(char expected) {
         if (isAtEnd()) return  false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
         current++;
         return true;
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text =  source.substring(start, current);
-        tokens.add(new Token(type,text,literal,line,start,start+text.length()));
-    }
-
+    // literals are rebuilt from the span when the token is materialized
     private void addToken(TokenType type){
-        addToken(type,null);
+        tokens.add(type, base + start, base + current, line);
     }
 
     // consumes a string
@@ -192,14 +289,13 @@ public class Scanner {
         }
 
         if (isAtEnd()){
-            Lox.error(line, "Unterminated string");
+            reporter.error(line, "Unterminated string");
             return;
         }
 
         advance();
 
-        String value = source.substring(start+1,current -1);
-        addToken(TokenType.STRING,value);
+        addToken(TokenType.STRING);
     }
 
     // asserts if the character is a digit
@@ -214,13 +310,13 @@ public class Scanner {
             advance(); // consume the "." (decimal point)
             while(isDigit(peek())) advance();
         }
-        addToken(TokenType.NUMBER, Double.valueOf(source.substring(start,current)));
+        addToken(TokenType.NUMBER);
     }
 
 
     private char peekNext(){
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if (!fill(2)) return '\0';
+        return buffer[current+1];
     }
 }
 
@@ -0,0 +1,245 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// A directory of resolved scripts written by AstWriter, named by a SHA-256 of
+// the source bytes, the charset they are decoded with, the format and the
+// front end that built them. An unchanged script loads from here instead of
+// going through the front end. Entries are written to a temporary file and
+// moved into place once complete, so a reader never sees half an entry.
+// Caching is best effort: any I/O failure just means the script is compiled
+// from source.
+//
+// The directory is kept under a size limit. Every commit deletes the least
+// recently used entries past it, along with temporary files that writers
+// left behind, so entries for edited scripts and old builds age out.
+final class ScriptCache {
+    private static final long WINDOW = 1 << 26;
+    private static final long DEFAULT_LIMIT = 64L << 20;
+    // a temporary file this old belongs to a writer that died
+    private static final long STALE_MILLIS = 60L * 60 * 1000;
+    // The classes whose code decides what tree a script becomes and how it is
+    // encoded, nested classes included. Hashing their bytes into every key
+    // means a change to any of them, a new slot layout in the Resolver say,
+    // misses the old entries even if nobody bumped AstWriter.FORMAT. Snapshots,
+    // whose function bodies are AstWriter streams too, carry the same hash.
+    private static final List<Class<?>> FRONT_END = List.of(Scanner.class, TokenStream.class, Token.class,
+            TokenType.class, Parser.class, Resolver.class, Expr.class, Stmt.class, AstWriter.class, AstReader.class);
+    static final byte[] IMPLEMENTATION = implementation();
+
+    private final Path directory;
+    private final long limit;
+
+    ScriptCache(Path directory) {
+        this(directory, DEFAULT_LIMIT);
+    }
+
+    ScriptCache(Path directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+    }
+
+    // -Dlox.cache=<dir>, or ~/.cache/lox, holding up to -Dlox.cache.size=<megabytes>, 64 by default
+    static ScriptCache defaultCache() {
+        String directory = System.getProperty("lox.cache");
+        long limit = Long.getLong("lox.cache.size", DEFAULT_LIMIT >> 20) << 20;
+        if (directory != null) return new ScriptCache(Paths.get(directory), limit);
+        return new ScriptCache(Paths.get(System.getProperty("user.home"), ".cache", "lox"), limit);
+    }
+
+    // Without the class files to hash, as under some class loaders, the keys
+    // get a random value of the same length instead: nothing is reused across
+    // runs, but nothing stale ever runs either.
+    private static byte[] implementation() {
+        MessageDigest digest = sha256();
+        for (Class<?> root : FRONT_END) {
+            for (Class<?> member : root.getNestMembers()) {
+                String name = member.getName();
+                try (InputStream in = member.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+                    if (in == null) throw new IOException("No class file for " + name + ".");
+                    digest.update(in.readAllBytes());
+                } catch (IOException e) {
+                    byte[] random = new byte[digest.getDigestLength()];
+                    ThreadLocalRandom.current().nextBytes(random);
+                    return random;
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    static String key(Path file, Charset charset) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += WINDOW) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW, size - position)));
+            }
+        }
+        digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(4).putInt(0, AstWriter.FORMAT));
+        digest.update(IMPLEMENTATION);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + ".ast");
+    }
+
+    // the complete entry for key, mapped, or null
+    AstReader open(String key) {
+        Path path = path(key);
+        AstReader reader;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            reader = new AstReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            return null;
+        }
+        // the modification time is the last use, so pruning keeps the entries in use
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+        return reader;
+    }
+
+    // a writer for key's entry, or null if the cache cannot be written
+    Entry create(String key) {
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                return new Entry(this, path(key), temporary);
+            } catch (IOException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Deletes entries, oldest use first, until the rest fit in the limit. Other
+    // processes may be pruning or writing too, so files vanishing midway are fine.
+    private void prune() {
+        record Cached(Path path, long size, long used) {}
+        List<Cached> entries = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                long used = attributes.lastModifiedTime().toMillis();
+                if (name.endsWith(".tmp") && now - used > STALE_MILLIS) {
+                    delete(file);
+                } else if (name.endsWith(".ast")) {
+                    entries.add(new Cached(file, attributes.size(), used));
+                    total += attributes.size();
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        if (total <= limit) return;
+        entries.sort(Comparator.comparingLong(Cached::used));
+        for (Cached entry : entries) {
+            if (total <= limit) break;
+            delete(entry.path());
+            total -= entry.size();
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    static final class Entry {
+        private final ScriptCache cache;
+        private final Path path;
+        private final Path temporary;
+        private final AstWriter writer;
+        private boolean failed = false;
+
+        private Entry(ScriptCache cache, Path path, Path temporary) throws IOException {
+            this.cache = cache;
+            this.path = path;
+            this.temporary = temporary;
+            this.writer = new AstWriter(Files.newOutputStream(temporary));
+        }
+
+        void write(Stmt statement) {
+            if (failed) return;
+            try {
+                writer.write(statement);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        // publishes the entry once the whole script has been written
+        void commit() {
+            try {
+                if (!failed) {
+                    writer.finish();
+                    writer.close();
+                    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    cache.prune();
+                    return;
+                }
+            } catch (IOException e) {
+                // fall through and drop it
+            }
+            abort();
+        }
+
+        void abort() {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The field layout shared by instances that were given the same fields in the
+// same order. Adding a field moves an instance from its shape to the child shape
+// for that name, which is created the first time any instance takes that step.
+// Every class has its own root, so a shape also pins down the class and can
+// answer method lookups; inline caches key on it for fields and methods alike.
+final class Shape {
+    final LoxClass klass;
+    // number of fields, also the offset the next field gets
+    final int size;
+    private final Map<Symbol, Integer> offsets;
+    private final Map<Symbol, Shape> transitions = new ConcurrentHashMap<>();
+    private final Map<Symbol, Property> properties = new ConcurrentHashMap<>();
+
+    // What a name means on an instance of a shape: a field at offset, or
+    // failing that the class's method (null when there is neither). For stores,
+    // shape is the shape the instance has once the field exists.
+    static final class Property {
+        final Shape shape;
+        final int offset;
+        final LoxFunction method;
+
+        private Property(Shape shape, int offset, LoxFunction method) {
+            this.shape = shape;
+            this.offset = offset;
+            this.method = method;
+        }
+    }
+
+    Shape(LoxClass klass) {
+        this.klass = klass;
+        this.size = 0;
+        this.offsets = Map.of();
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.klass = parent.klass;
+        this.size = parent.size + 1;
+        Map<Symbol, Integer> offsets = new HashMap<>(parent.offsets);
+        offsets.put(name, parent.size);
+        this.offsets = offsets;
+    }
+
+    int offsetOf(Symbol name) {
+        Integer offset = offsets.get(name);
+        return offset == null ? -1 : offset;
+    }
+
+    // field names in offset order
+    Symbol[] fields() {
+        Symbol[] fields = new Symbol[size];
+        offsets.forEach((name, offset) -> fields[offset] = name);
+        return fields;
+    }
+
+    Property lookup(Symbol name) {
+        return properties.computeIfAbsent(name, key -> {
+            int offset = offsetOf(key);
+            return new Property(this, offset, offset < 0 ? klass.findMethod(key) : null);
+        });
+    }
+
+    // where a store to name goes, adding the field if this shape doesn't have it
+    Property store(Symbol name) {
+        if (offsetOf(name) >= 0) return lookup(name);
+        return transitions.computeIfAbsent(name, key -> new Shape(this, key)).lookup(name);
+    }
+}
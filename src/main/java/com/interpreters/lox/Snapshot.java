@@ -0,0 +1,466 @@
+package com.interpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// The globals an interpreter has after running a prelude, saved to a file so a
+// later run can start from them instead of running the prelude again. Saved are
+// the global variables and everything they reach: the environments closures
+// captured, functions, classes with their method tables and instances with their
+// fields. Built-in functions are saved by name and taken from the interpreter
+// being restored. Each function body is its own AstWriter stream, decoded from
+// the mapped file the first time it is run, so restoring costs one object per
+// value and not a tree per function. The bodies carry the Resolver's slots, so
+// a snapshot only restores on the build of the front end that saved it, as
+// ScriptCache.IMPLEMENTATION tells, and the CRC32 of the file is checked on
+// restore, since a damaged slot decodes as well as a good one. Each body's
+// header is checked then too; a body that still fails to decode is a runtime
+// error in its call.
+//
+//   file  := MAGIC FORMAT IMPLEMENTATION declarations environments functions
+//            classes instances bound contents CHECKSUM TRAILER
+//
+// Objects are numbered in the order they are created on restore, which is the
+// order of the sections: an environment needs only its parent, a function its
+// closure, a class its superclass and methods, an instance its class and a bound
+// method its receiver. Variables and fields, which can refer to anything, are
+// filled in last.
+final class Snapshot {
+    static final int MAGIC = 0x4c4f5853; // "LOXS"
+    static final int FORMAT = 3;
+    static final int TRAILER = AstWriter.TRAILER;
+
+    // values
+    static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4,
+            OBJECT = 5, NATIVE = 6;
+
+    private static final TokenType[] TYPES = TokenType.values();
+    // the fewest bytes each of these can take in the file: type, lexeme length, line and offsets;
+    // a name, parameter count and body length; declaration, closure and two flags
+    private static final int TOKEN_BYTES = 17;
+    private static final int DECLARATION_BYTES = TOKEN_BYTES + 8;
+    private static final int FUNCTION_BYTES = 10;
+
+    private Snapshot() {}
+
+    static void save(Interpreter interpreter, Path file) throws IOException {
+        new Writer(interpreter).write(file);
+    }
+
+    // defines the snapshot's globals in interpreter
+    static void restore(Interpreter interpreter, Path file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] implementation = ScriptCache.IMPLEMENTATION;
+        if (in.remaining() < 16 + implementation.length || in.getInt() != MAGIC || in.getInt() != FORMAT
+                || in.getInt(in.limit() - 4) != TRAILER) {
+            throw new IOException("Not a complete snapshot of this format.");
+        }
+        if (!in.slice(in.position(), implementation.length).equals(ByteBuffer.wrap(implementation))) {
+            throw new IOException("Saved by a different build of jlox, save it again.");
+        }
+        in.position(in.position() + implementation.length);
+        CRC32 checksum = new CRC32();
+        checksum.update(in.slice(0, in.limit() - 8));
+        if ((int) checksum.getValue() != in.getInt(in.limit() - 8)) throw new IOException("Corrupt snapshot.");
+        // counts and lengths are checked before anything is allocated for them,
+        // anything else a corrupt file can trip over surfaces as a runtime exception
+        try {
+            new Reader(interpreter, in).read();
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot.", e);
+        }
+    }
+
+    private static final class Writer {
+        private final Interpreter interpreter;
+        private final Map<LoxCallable, String> natives = new IdentityHashMap<>();
+        private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+        private final List<Environment> environments = new ArrayList<>();
+        private final List<LoxFunction> functions = new ArrayList<>();
+        private final List<LoxClass> classes = new ArrayList<>();
+        private final List<LoxInstance> instances = new ArrayList<>();
+        private final List<LoxFunction> bound = new ArrayList<>();
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        // objects found but not yet looked inside
+        private final List<Object> pending = new ArrayList<>();
+        private DataOutputStream out;
+
+        Writer(Interpreter interpreter) {
+            this.interpreter = interpreter;
+            interpreter.natives.forEach((name, function) -> natives.put(function, name));
+        }
+
+        void write(Path file) throws IOException {
+            ids.put(interpreter.globals, -1);
+            environments.add(interpreter.globals);
+            pending.add(interpreter.globals);
+            while (!pending.isEmpty()) scan(pending.remove(pending.size() - 1));
+            number();
+
+            CheckedOutputStream checked = new CheckedOutputStream(Files.newOutputStream(file), new CRC32());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16))) {
+                this.out = out;
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.write(ScriptCache.IMPLEMENTATION);
+                writeDeclarations();
+                out.writeInt(environments.size());
+                for (Environment environment : environments) {
+                    out.writeInt(environment.enclosing == null ? -1 : ids.get(environment.enclosing));
+                }
+                out.writeInt(functions.size());
+                for (LoxFunction function : functions) writeFunction(function);
+                out.writeInt(classes.size());
+                for (LoxClass klass : classes) {
+                    string(klass.name);
+                    out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+                    out.writeInt(klass.methods.size());
+                    for (Map.Entry<Symbol, LoxFunction> method : klass.methods.entrySet()) {
+                        string(method.getKey().name);
+                        out.writeInt(ids.get(method.getValue()));
+                    }
+                }
+                out.writeInt(instances.size());
+                for (LoxInstance instance : instances) out.writeInt(ids.get(instance.klass));
+                out.writeInt(bound.size());
+                for (LoxFunction function : bound) {
+                    writeFunction(function);
+                    out.writeInt(ids.get(function.receiver));
+                }
+                writeContents();
+                out.flush();
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.writeInt(TRAILER);
+            }
+        }
+
+        // FINDING OBJECTS
+
+        private void scan(Object object) throws IOException {
+            if (object instanceof Environment environment) {
+                if (environment.enclosing == null) {
+                    for (Object value : environment.values().values()) find(value);
+                } else {
+                    for (int slot = 0; slot < environment.size(); slot++) find(environment.getAt(0, slot));
+                }
+            } else if (object instanceof LoxFunction function) {
+                declarations.putIfAbsent(function.declaration, declarations.size());
+                environment(function.closure);
+                if (function.receiver != null) find(function.receiver);
+            } else if (object instanceof LoxClass klass) {
+                for (LoxFunction method : klass.methods.values()) find(method);
+            } else if (object instanceof LoxInstance instance) {
+                find(instance.klass);
+                for (int offset = 0; offset < instance.shape.size; offset++) find(instance.valueAt(offset));
+            }
+        }
+
+        private void find(Object value) throws IOException {
+            if (value == null || value instanceof Boolean || value instanceof Double
+                    || value instanceof CharSequence || ids.containsKey(value)) return;
+            if (value instanceof LoxCallable callable && natives.containsKey(callable)) return;
+
+            if (value instanceof LoxFunction function) {
+                (function.receiver == null ? functions : bound).add(function);
+            } else if (value instanceof LoxClass klass) {
+                // superclasses first, they are created before their subclasses
+                if (klass.superclass != null) find(klass.superclass);
+                classes.add(klass);
+            } else if (value instanceof LoxInstance instance) {
+                instances.add(instance);
+            } else {
+                throw new IOException("Cannot save " + value + " in a snapshot.");
+            }
+            ids.put(value, -1);
+            pending.add(value);
+        }
+
+        // parents first, they are created before the environments inside them
+        private void environment(Environment environment) {
+            if (ids.containsKey(environment)) return;
+            environment(environment.enclosing);
+            environments.add(environment);
+            ids.put(environment, -1);
+            pending.add(environment);
+        }
+
+        private void number() {
+            int id = 0;
+            for (List<?> objects : List.of(environments, functions, classes, instances, bound)) {
+                for (Object object : objects) ids.put(object, id++);
+            }
+        }
+
+        // WRITING
+
+        private void writeDeclarations() throws IOException {
+            Stmt.Function[] ordered = new Stmt.Function[declarations.size()];
+            declarations.forEach((declaration, index) -> ordered[index] = declaration);
+            out.writeInt(ordered.length);
+            for (Stmt.Function declaration : ordered) {
+                token(declaration.functionName);
+                out.writeInt(declaration.parameters.size());
+                for (Token parameter : declaration.parameters) token(parameter);
+
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                AstWriter writer = new AstWriter(body);
+                for (Stmt statement : declaration.body) writer.write(statement);
+                writer.finish();
+                writer.close();
+                out.writeInt(body.size());
+                body.writeTo(out);
+            }
+        }
+
+        private void writeFunction(LoxFunction function) throws IOException {
+            out.writeInt(declarations.get(function.declaration));
+            out.writeInt(ids.get(function.closure));
+            out.writeBoolean(function.isInitializer);
+            out.writeBoolean(function.isMethod);
+        }
+
+        private void writeContents() throws IOException {
+            for (Environment environment : environments) {
+                if (environment.enclosing == null) {
+                    Map<Symbol, Object> values = environment.values();
+                    out.writeInt(values.size());
+                    for (Map.Entry<Symbol, Object> global : values.entrySet()) {
+                        string(global.getKey().name);
+                        value(global.getValue());
+                    }
+                } else {
+                    out.writeInt(environment.size());
+                    for (int slot = 0; slot < environment.size(); slot++) value(environment.getAt(0, slot));
+                }
+            }
+            for (LoxInstance instance : instances) {
+                Symbol[] fields = instance.shape.fields();
+                out.writeInt(fields.length);
+                for (int offset = 0; offset < fields.length; offset++) {
+                    string(fields[offset].name);
+                    value(instance.valueAt(offset));
+                }
+            }
+        }
+
+        private void value(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            } else if (value instanceof CharSequence string) {
+                out.writeByte(STRING);
+                string(string.toString());
+            } else if (ids.containsKey(value)) {
+                out.writeByte(OBJECT);
+                out.writeInt(ids.get(value));
+            } else {
+                out.writeByte(NATIVE);
+                string(natives.get((LoxCallable) value));
+            }
+        }
+
+        private void token(Token token) throws IOException {
+            out.writeByte(token.type.ordinal());
+            string(token.lexeme);
+            out.writeInt(token.line);
+            out.writeInt(token.startOffset);
+            out.writeInt(token.endOffset);
+        }
+
+        private void string(String value) throws IOException {
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+    }
+
+    private static final class Reader {
+        private final Interpreter interpreter;
+        private final ByteBuffer in;
+        private final List<Object> objects = new ArrayList<>();
+        private Stmt.Function[] declarations;
+
+        Reader(Interpreter interpreter, ByteBuffer in) {
+            this.interpreter = interpreter;
+            this.in = in;
+        }
+
+        // A count of items at least size bytes long each, which must all fit in
+        // what is left of the file, so a corrupt count fails here instead of
+        // allocating an array or list sized by garbage.
+        private int count(int size) throws IOException {
+            int count = in.getInt();
+            if (count < 0 || (long) count * size > in.remaining()) throw new IOException("Corrupt snapshot.");
+            return count;
+        }
+
+        void read() throws IOException {
+            declarations = new Stmt.Function[count(DECLARATION_BYTES)];
+            for (int i = 0; i < declarations.length; i++) declarations[i] = declaration();
+
+            int environments = count(4);
+            for (int i = 0; i < environments; i++) {
+                int enclosing = in.getInt();
+                objects.add(enclosing < 0 ? interpreter.globals
+                        : new Environment((Environment) objects.get(enclosing)));
+            }
+            int functions = count(FUNCTION_BYTES);
+            for (int i = 0; i < functions; i++) objects.add(function());
+            int classes = count(12);
+            for (int i = 0; i < classes; i++) {
+                String name = string();
+                int superclass = in.getInt();
+                int count = count(8);
+                Map<Symbol, LoxFunction> methods = new HashMap<>();
+                for (int j = 0; j < count; j++) methods.put(Symbol.of(string()), (LoxFunction) objects.get(in.getInt()));
+                objects.add(new LoxClass(name, superclass < 0 ? null : (LoxClass) objects.get(superclass), methods));
+            }
+            int instances = count(4);
+            for (int i = 0; i < instances; i++) objects.add(new LoxInstance((LoxClass) objects.get(in.getInt())));
+            int bound = count(FUNCTION_BYTES + 4);
+            for (int i = 0; i < bound; i++) {
+                LoxFunction function = function();
+                objects.add(function.bind((LoxInstance) objects.get(in.getInt())));
+            }
+
+            for (int i = 0; i < environments; i++) {
+                Environment environment = (Environment) objects.get(i);
+                int count = count(1);
+                for (int j = 0; j < count; j++) {
+                    if (environment == interpreter.globals) {
+                        environment.define(Symbol.of(string()), value());
+                    } else {
+                        environment.define(value());
+                    }
+                }
+            }
+            int first = environments + functions + classes;
+            for (int i = 0; i < instances; i++) {
+                LoxInstance instance = (LoxInstance) objects.get(first + i);
+                int count = count(5);
+                for (int j = 0; j < count; j++) instance.store(instance.shape.store(Symbol.of(string())), value());
+            }
+            // what is left is the checksum and trailer, both checked already
+            if (in.remaining() != 8) throw new IOException("Corrupt snapshot.");
+        }
+
+        private Stmt.Function declaration() throws IOException {
+            Token name = token();
+            int count = count(TOKEN_BYTES);
+            List<Token> parameters = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) parameters.add(token());
+            int length = count(1);
+            ByteBuffer encoded = in.slice(in.position(), length);
+            // checks the body's header and trailer now, its statements are read on first use
+            new AstReader(encoded.duplicate());
+            Body body = new Body(name, encoded);
+            in.position(in.position() + length);
+            return new Stmt.Function(name, parameters, body);
+        }
+
+        private LoxFunction function() throws IOException {
+            Stmt.Function declaration = declarations[in.getInt()];
+            Environment closure = (Environment) objects.get(in.getInt());
+            boolean isInitializer = in.get() != 0;
+            boolean isMethod = in.get() != 0;
+            return new LoxFunction(declaration, closure, isInitializer, isMethod);
+        }
+
+        private Object value() throws IOException {
+            byte tag = in.get();
+            return switch (tag) {
+                case NIL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case NUMBER -> in.getDouble();
+                case STRING -> string();
+                case OBJECT -> objects.get(in.getInt());
+                case NATIVE -> {
+                    String name = string();
+                    LoxCallable function = interpreter.natives.get(name);
+                    if (function == null) throw new IOException("Unknown native function " + name + ".");
+                    yield function;
+                }
+                default -> throw new IOException("Unknown value tag " + tag + ".");
+            };
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TYPES[in.get()];
+            String lexeme = string();
+            int line = in.getInt();
+            int start = in.getInt();
+            int end = in.getInt();
+            return new Token(type, lexeme, null, line, start, end);
+        }
+
+        private String string() throws IOException {
+            char[] chars = new char[count(2)];
+            for (int i = 0; i < chars.length; i++) chars[i] = in.getChar();
+            return new String(chars);
+        }
+    }
+
+    // A function body still in the snapshot, decoded when it is first used.
+    private static final class Body extends AbstractList<Stmt> {
+        // the function's name, where a body that fails to decode is reported
+        private final Token name;
+        private ByteBuffer encoded;
+        private volatile List<Stmt> statements;
+
+        Body(Token name, ByteBuffer encoded) {
+            this.name = name;
+            this.encoded = encoded;
+        }
+
+        private List<Stmt> statements() {
+            List<Stmt> statements = this.statements;
+            if (statements != null) return statements;
+            synchronized (this) {
+                if (this.statements == null) {
+                    try {
+                        AstReader reader = new AstReader(encoded);
+                        List<Stmt> decoded = new ArrayList<>();
+                        while (reader.hasNext()) decoded.add(reader.next());
+                        this.statements = decoded;
+                        encoded = null;
+                    } catch (IOException | RuntimeException e) {
+                        throw new RuntimeError(name, "Corrupt body of " + name.lexeme + " in snapshot.");
+                    }
+                }
+                return this.statements;
+            }
+        }
+
+        @Override
+        public Stmt get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
+        }
+    }
+}
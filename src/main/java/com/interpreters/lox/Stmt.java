@@ -2,8 +2,8 @@ package com.interpreters.lox;
 
 import java.util.List;
 
-abstract class Stmt {
-  interface Visitor<R> {
+public abstract class Stmt {
+  public interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
 
     R visitPrintStmt(Print stmt);
@@ -23,141 +23,144 @@ abstract class Stmt {
     R visitClassStmt(Class stmt);
   }
 
-  static class Expression extends Stmt {
+  public static class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
     }
 
-    final Expr expression;
+    public final Expr expression;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitExpressionStmt(this);
     }
   }
 
-  static class Print extends Stmt {
+  public static class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
     }
 
-    final Expr expression;
+    public final Expr expression;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitPrintStmt(this);
     }
   }
 
-  static class Var extends Stmt {
+  public static class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
       this.initializer = initializer;
     }
 
-    final Token name;
-    final Expr initializer;
+    public final Token name;
+    public final Expr initializer;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVarStmt(this);
     }
   }
 
-  static class Block extends Stmt {
+  public static class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
 
-    final List<Stmt> statements;
+    public final List<Stmt> statements;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
   }
 
-  static class If extends Stmt {
+  public static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
     }
 
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
+    public final Expr condition;
+    public final Stmt thenBranch;
+    public final Stmt elseBranch;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitIfStmt(this);
     }
   }
 
-  static class While extends Stmt {
+  public static class While extends Stmt {
     While(Expr condition, Stmt body) {
       this.condition = condition;
       this.body = body;
     }
 
-    final Expr condition;
-    final Stmt body;
+    public final Expr condition;
+    public final Stmt body;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitWhileStmt(this);
     }
   }
 
-  static class Function extends Stmt {
+  public static class Function extends Stmt {
     Function(Token functionName, List<Token> parameters, List<Stmt> body) {
       this.functionName = functionName;
       this.parameters = parameters;
       this.body = body;
     }
 
-    final Token functionName;
-    final List<Token> parameters;
-    final List<Stmt> body;
+    public final Token functionName;
+    public final List<Token> parameters;
+    public final List<Stmt> body;
+    int calls = 0;
+    Jit.Code jitted;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
     }
   }
 
-  static class Return extends Stmt {
+  public static class Return extends Stmt {
     Return(Token keyword, Expr value) {
       this.keyword = keyword;
       this.value = value;
     }
 
-    final Token keyword;
-    final Expr value;
+    public final Token keyword;
+    public final Expr value;
+    boolean tail = false;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
   }
 
-  static class Class extends Stmt {
+  public static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
       this.name = name;
       this.superclass = superclass;
       this.methods = methods;
     }
 
-    final Token name;
-    final Expr.Variable superclass;
-    final List<Stmt.Function> methods;
+    public final Token name;
+    public final Expr.Variable superclass;
+    public final List<Stmt.Function> methods;
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
     }
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
 
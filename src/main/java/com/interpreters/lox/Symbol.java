@@ -0,0 +1,77 @@
+package com.interpreters.lox;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+// An identifier, one object per name for the whole JVM. The tables that look
+// names up at run time, globals, shapes and class methods, key on symbols, so
+// a lookup costs the cached hash and an identity comparison instead of
+// hashing and comparing the characters. The scanner interns every identifier
+// it reads; anything else naming a global or a method goes through of.
+//
+// The table only holds symbols weakly. Trees, tokens, environments and shapes
+// keep the symbols they use alive, and once the last of them is gone, say a
+// script a long-running engine compiled and dropped, its names can be
+// collected and their entries are cleared on a later of. A name interned
+// again after that gets a new symbol, which is fine since nothing still holds
+// the old one to compare it with.
+final class Symbol {
+    private static final ConcurrentHashMap<String, Entry> TABLE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> FREED = new ReferenceQueue<>();
+
+    static final Symbol INIT = of("init");
+
+    final String name;
+    private final int hash;
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final String name;
+
+        Entry(Symbol symbol) {
+            super(symbol, FREED);
+            this.name = symbol.name;
+        }
+    }
+
+    static Symbol of(String name) {
+        expunge();
+        while (true) {
+            Entry entry = TABLE.get(name);
+            Symbol symbol = entry == null ? null : entry.get();
+            if (symbol != null) return symbol;
+            // an empty entry is one the collector cleared but expunge hasn't reached yet
+            symbol = new Symbol(name);
+            Entry fresh = new Entry(symbol);
+            if (entry == null ? TABLE.putIfAbsent(name, fresh) == null : TABLE.replace(name, entry, fresh)) {
+                return symbol;
+            }
+        }
+    }
+
+    // drops the entries of collected symbols, unless a new symbol took the name already
+    private static void expunge() {
+        Reference<? extends Symbol> freed;
+        while ((freed = FREED.poll()) != null) {
+            Entry entry = (Entry) freed;
+            TABLE.remove(entry.name, entry);
+        }
+    }
+
+    // equals stays Object's, there is only one live symbol per name
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
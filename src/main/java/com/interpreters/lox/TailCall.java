@@ -0,0 +1,18 @@
+package com.interpreters.lox;
+
+import java.util.List;
+
+// What `return f(...)` returns instead of calling f, so the returning
+// function's frame is gone before f runs. The LoxFunction being returned
+// from runs f in its place, so tail recursion runs in constant stack.
+final class TailCall {
+    final LoxFunction function;
+    final LoxInstance receiver;
+    final List<Object> arguments;
+
+    TailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+        this.function = function;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+}
@@ -1,21 +1,31 @@
 package com.interpreters.lox;
 
 
-class Token {
-    final TokenType type;
-    final String lexeme;
-    final Object literal;
-    final Integer line;
-    final Integer startOffset;
-    final Integer endOffset;
+public class Token {
+    public final TokenType type;
+    public final String lexeme;
+    public final Object literal;
+    public final int line;
+    public final int startOffset;
+    public final int endOffset;
+    // the interned name of an identifier, null for every other token
+    final Symbol symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line, int startOffset, int endOffset) {
+        this(type, type == TokenType.IDENTIFIER ? Symbol.of(lexeme) : null, lexeme, literal,
+                line, startOffset, endOffset);
+    }
+
+    // for a scanner that has already interned the identifier
+    Token(TokenType type, Symbol symbol, String lexeme, Object literal, int line, int startOffset, int endOffset) {
         this.endOffset =  endOffset;
         this.startOffset =  startOffset;
         this.type =  type;
         this.line = line;
-        this.lexeme = lexeme;
+        // identifiers share the symbol's String rather than keeping their own copy
+        this.lexeme = symbol != null ? symbol.name : lexeme;
         this.literal = literal;
+        this.symbol = symbol;
     }
 
     @Override
@@ -0,0 +1,204 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The Scanner's output: tokens packed into parallel int arrays of
+// type/start/end/line over the source. Nothing but the arrays is allocated
+// while scanning. Token objects, lexemes and literals are only built when the
+// Parser asks for a token it keeps in the AST, and identifiers are interned
+// into Symbols, through a table here that matches the source characters
+// without building a String for every use of a name.
+//
+// Indices are positions in the whole token sequence. Reading past the last
+// scanned token scans more, and tokens before a released index are dropped
+// the next time the arrays fill, so a streamed source keeps only the tokens
+// of the declaration being parsed.
+final class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Scanner scanner;
+    private int[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] lines;
+    // index of the token in slot 0, and of the first one still needed
+    private int first = 0;
+    private int released = 0;
+    private int count = 0;
+
+    // open-addressed by hash of the characters, sized to a power of two
+    private Symbol[] names = new Symbol[64];
+    private int nameCount = 0;
+
+    // roughly one token per five characters of typical Lox
+    TokenStream(Scanner scanner, int capacity) {
+        this.scanner = scanner;
+        types = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    // a reader of the same scanned tokens with its own intern table, for another thread
+    TokenStream view() {
+        TokenStream view = new TokenStream(scanner, 0);
+        view.types = types;
+        view.starts = starts;
+        view.ends = ends;
+        view.lines = lines;
+        view.first = first;
+        view.released = released;
+        view.count = count;
+        return view;
+    }
+
+    void add(TokenType type, int start, int end, int line) {
+        if (count == types.length) compact();
+        types[count] = type.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        lines[count] = line;
+        count++;
+    }
+
+    private void compact() {
+        int drop = released - first;
+        if (drop > 0) {
+            count -= drop;
+            System.arraycopy(types, drop, types, 0, count);
+            System.arraycopy(starts, drop, starts, 0, count);
+            System.arraycopy(ends, drop, ends, 0, count);
+            System.arraycopy(lines, drop, lines, 0, count);
+            first = released;
+        }
+        if (count * 2 < types.length) return;
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+    }
+
+    // the index one past the last scanned token
+    int size() {
+        return first + count;
+    }
+
+    // whether the EOF token has been scanned
+    boolean isComplete() {
+        return count > 0 && types[count - 1] == TokenType.EOF.ordinal();
+    }
+
+    // the tokens before index will not be read again
+    void release(int index) {
+        released = Math.max(released, index);
+    }
+
+    // where errors in these tokens are reported
+    ErrorReporter reporter() {
+        return scanner.reporter;
+    }
+
+    // source offset of the first unreleased token, which the scanner must keep
+    int retainedStart(int fallback) {
+        int slot = released - first;
+        return slot < count ? starts[slot] : fallback;
+    }
+
+    private int slot(int index) {
+        while (index >= first + count) scanner.scanNext();
+        return index - first;
+    }
+
+    // slot may scan and reallocate the arrays, so it is taken before they are read
+    TokenType type(int index) {
+        int slot = slot(index);
+        return TYPES[types[slot]];
+    }
+
+    int line(int index) {
+        int slot = slot(index);
+        return lines[slot];
+    }
+
+    String lexeme(int index) {
+        int slot = slot(index);
+        int start = starts[slot];
+        int end = ends[slot];
+        if (types[slot] == TokenType.IDENTIFIER.ordinal()) return intern(start, end).name;
+        // EOF spans the last character for error offsets but has no text
+        if (types[slot] == TokenType.EOF.ordinal()) return "";
+        return scanner.text(start, end);
+    }
+
+    Object literal(int index) {
+        int slot = slot(index);
+        int start = starts[slot];
+        int end = ends[slot];
+        return switch (TYPES[types[slot]]) {
+            case NUMBER -> Double.valueOf(scanner.text(start, end));
+            // drop the quotes
+            case STRING -> scanner.text(start + 1, end - 1);
+            default -> null;
+        };
+    }
+
+    Token token(int index) {
+        int slot = slot(index);
+        Symbol symbol = types[slot] == TokenType.IDENTIFIER.ordinal() ? intern(starts[slot], ends[slot]) : null;
+        return new Token(TYPES[types[slot]], symbol, symbol != null ? symbol.name : lexeme(index), literal(index),
+                lines[slot], starts[slot], ends[slot]);
+    }
+
+    // every token materialized, for callers that want the old list form
+    List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) tokens.add(token(i));
+        return tokens;
+    }
+
+    // INTERNING
+
+    private Symbol intern(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + scanner.charAt(i);
+        int mask = names.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            Symbol symbol = names[slot];
+            if (symbol == null) break;
+            if (symbol.name.length() == end - start && matches(symbol.name, start)) return symbol;
+            slot = (slot + 1) & mask;
+        }
+        Symbol symbol = Symbol.of(scanner.text(start, end));
+        names[slot] = symbol;
+        if (++nameCount * 2 > names.length) rehash();
+        return symbol;
+    }
+
+    private boolean matches(String name, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (scanner.charAt(start + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        Symbol[] old = names;
+        names = new Symbol[old.length * 2];
+        int mask = names.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol == null) continue;
+            // String.hashCode, which Symbol caches, matches the hash computed in intern
+            int slot = mix(symbol.hashCode()) & mask;
+            while (names[slot] != null) slot = (slot + 1) & mask;
+            names[slot] = symbol;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,13 @@
+package com.interpreters.lox;
+
+// Thrown by Interpreter.evaluateNumber when an expression that was expected to
+// produce a number produced something else. Carries the value already computed
+// so the caller can continue on the boxed path without evaluating it twice.
+class UnexpectedResult extends RuntimeException {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,47 @@
+package com.interpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A function body: bytecode, the source line of every byte and a constant pool.
+final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    final List<Object> constants = new ArrayList<>();
+    // finalized pool used by the VM; constants are deduplicated while compiling
+    Object[] pool;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        // functions are unique per declaration, everything else is a value
+        if (value instanceof ObjFunction) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        pool = constants.toArray();
+    }
+}
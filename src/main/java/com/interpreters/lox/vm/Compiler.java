@@ -0,0 +1,608 @@
+package com.interpreters.lox.vm;
+
+import com.interpreters.lox.Expr;
+import com.interpreters.lox.Lox;
+import com.interpreters.lox.Stmt;
+import com.interpreters.lox.Token;
+import com.interpreters.lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles the statements produced by the Parser into bytecode. Locals live in
+// stack slots and captured locals become upvalues, so unlike the tree-walker
+// no environments are allocated at runtime.
+final class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_SHORT = 0xffff;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER,
+    }
+
+    private static final class Local {
+        final String name;
+        // -1 until the initializer has been compiled
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private record Upvalue(int index, boolean isLocal) {}
+
+    private static final class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // slot 0 holds the callee, or the receiver inside methods
+            String slotZero = type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "";
+            locals.add(new Local(slotZero, 0));
+        }
+    }
+
+    private static final class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private FunctionState current;
+    private ClassState currentClass;
+    private int line = 1;
+    private boolean hadError = false;
+
+    // returns the top-level script function, or null if compilation failed
+    static ObjFunction compile(List<Stmt> statements) {
+        Compiler compiler = new Compiler();
+        compiler.current = new FunctionState(null, new ObjFunction(null, 0), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compiler.compile(statement);
+        }
+        ObjFunction script = compiler.endFunction();
+        return compiler.hadError ? null : script;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void error(String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+
+    private void at(Token token) {
+        if (token != null) line = token.line;
+    }
+
+    // EMITTING
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emit(byte b) {
+        chunk().write(b, line);
+    }
+
+    private void emit(byte a, byte b) {
+        emit(a);
+        emit(b);
+    }
+
+    private void emitShort(int value) {
+        emit((byte) ((value >> 8) & 0xff));
+        emit((byte) (value & 0xff));
+    }
+
+    private void emitWithShort(byte op, int operand) {
+        emit(op);
+        emitShort(operand);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > MAX_SHORT) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emitConstant(Object value) {
+        emitWithShort(OpCode.CONSTANT, makeConstant(value));
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emitShort(MAX_SHORT);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_SHORT) error("Too much code to jump over.");
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > MAX_SHORT) error("Loop body too large.");
+        emitShort(offset);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, (byte) 0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    private ObjFunction endFunction() {
+        emitReturn();
+        ObjFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }
+
+    // SCOPES AND VARIABLES
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            error("Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, -1));
+    }
+
+    // locals are declared before their initializer runs, globals are late bound
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name.lexeme);
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+        emitWithShort(OpCode.DEFINE_GLOBAL, makeConstant(name.lexeme));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            Local local = state.locals.get(i);
+            if (local.name.equals(name)) {
+                if (local.depth == -1) error("Can't read local variable in its own initializer.");
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index() == index && upvalue.isLocal() == isLocal) return i;
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            error("Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void getVariable(String name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL, (byte) slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.GET_UPVALUE, (byte) upvalue);
+            return;
+        }
+        emitWithShort(OpCode.GET_GLOBAL, makeConstant(name));
+    }
+
+    private void setVariable(String name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.SET_LOCAL, (byte) slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.SET_UPVALUE, (byte) upvalue);
+            return;
+        }
+        emitWithShort(OpCode.SET_GLOBAL, makeConstant(name));
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        at(stmt.functionName);
+        ObjFunction function = new ObjFunction(stmt.functionName.lexeme, stmt.parameters.size());
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (Token parameter : stmt.parameters) {
+            declareVariable(parameter);
+            markInitialized();
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        FunctionState state = current;
+        endFunction();
+
+        emitWithShort(OpCode.CLOSURE, makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emit(upvalue.isLocal() ? (byte) 1 : (byte) 0, (byte) upvalue.index());
+        }
+    }
+
+    // STATEMENTS
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declareVariable(stmt.functionName);
+        // a local function may refer to itself
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.functionName);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        at(stmt.keyword);
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        at(stmt.name);
+        int nameConstant = makeConstant(stmt.name.lexeme);
+        declareVariable(stmt.name);
+        emitWithShort(OpCode.CLASS, nameConstant);
+        defineVariable(stmt.name);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (stmt.superclass != null) {
+            at(stmt.superclass.name);
+            getVariable(stmt.superclass.name.lexeme);
+            beginScope();
+            addLocal("super");
+            markInitialized();
+            getVariable(stmt.name.lexeme);
+            emit(OpCode.INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        getVariable(stmt.name.lexeme);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.functionName.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            function(method, type);
+            emitWithShort(OpCode.METHOD, makeConstant(method.functionName.lexeme));
+        }
+        emit(OpCode.POP);
+
+        if (classState.hasSuperclass) endScope();
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    // EXPRESSIONS
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case PLUS -> emit(OpCode.ADD);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case STAR -> emit(OpCode.MULTIPLY);
+            case SLASH -> emit(OpCode.DIVIDE);
+            case MODULUS -> emit(OpCode.MODULO);
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            default -> {
+                // matches the tree-walker, which evaluates unknown operators to nil
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.arguments.size() > 255) {
+            error("Can't have more than 255 arguments");
+        }
+        if (expr.callee instanceof Expr.Get get) {
+            // obj.method(args) is dispatched without materializing a bound method
+            compile(get.object);
+            for (Expr argument : expr.arguments) compile(argument);
+            at(get.name);
+            emitWithShort(OpCode.INVOKE, makeConstant(get.name.lexeme));
+            emit((byte) expr.arguments.size());
+            return null;
+        }
+        if (expr.callee instanceof Expr.Super superExpr) {
+            at(superExpr.keyword);
+            getVariable("this");
+            for (Expr argument : expr.arguments) compile(argument);
+            getVariable("super");
+            emitWithShort(OpCode.SUPER_INVOKE, makeConstant(superExpr.method.lexeme));
+            emit((byte) expr.arguments.size());
+            return null;
+        }
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) compile(argument);
+        at(expr.paren);
+        emit(OpCode.CALL, (byte) expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        at(expr.name);
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        at(expr.name);
+        emitWithShort(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        at(expr.keyword);
+        if (currentClass == null) {
+            error("Can't use 'super' outside of a class.");
+        } else if (!currentClass.hasSuperclass) {
+            error("Can't use 'super' in a class with no superclass.");
+        }
+        getVariable("this");
+        getVariable("super");
+        emitWithShort(OpCode.GET_SUPER, makeConstant(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        at(expr.keyword);
+        if (currentClass == null) {
+            error("Can't use 'this' outside of a class.");
+            return null;
+        }
+        getVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value instanceof Boolean bool) {
+            emit(bool ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        at(expr.operator);
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.NEGATE);
+            case BANG -> emit(OpCode.NOT);
+            default -> {}
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.expression);
+        int falseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.truth_side);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(falseJump);
+        emit(OpCode.POP);
+        compile(expr.false_side);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        at(expr.name);
+        getVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.right);
+        at(expr.name);
+        setVariable(expr.name.lexeme);
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+package com.interpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class ObjClass {
+    final String name;
+    // inherited methods are copied down by OpCode.INHERIT, so lookups never walk superclasses
+    final Map<String, ObjClosure> methods = new HashMap<>();
+    ObjClosure initializer;
+
+    ObjClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,20 @@
+package com.interpreters.lox.vm;
+
+// A compiled function body; closures over it are created at runtime by OpCode.CLOSURE.
+final class ObjFunction {
+    final String name;
+    final int arity;
+    int upvalueCount = 0;
+    final Chunk chunk = new Chunk();
+
+    ObjFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fx " + name + ">";
+    }
+}
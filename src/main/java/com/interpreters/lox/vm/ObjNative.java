@@ -0,0 +1,22 @@
+package com.interpreters.lox.vm;
+
+final class ObjNative {
+    interface Fn {
+        Object call(Object[] stack, int argsStart, int argCount);
+    }
+
+    final String name;
+    final int arity;
+    final Fn fn;
+
+    ObjNative(String name, int arity, Fn fn) {
+        this.name = name;
+        this.arity = arity;
+        this.fn = fn;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fx(" + name + ")>";
+    }
+}
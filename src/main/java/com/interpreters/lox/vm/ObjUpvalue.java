@@ -0,0 +1,15 @@
+package com.interpreters.lox.vm;
+
+// A captured variable. While open it points at a live stack slot;
+// once the slot goes out of scope the value is copied into `closed`.
+final class ObjUpvalue {
+    int slot;
+    Object closed;
+    boolean isOpen = true;
+    ObjUpvalue next;
+
+    ObjUpvalue(int slot, ObjUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
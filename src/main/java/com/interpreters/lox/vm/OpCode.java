@@ -0,0 +1,49 @@
+package com.interpreters.lox.vm;
+
+// Instruction set of the VM. Operands follow the opcode in the chunk:
+// [u8] is a single byte, [u16] is two bytes, big endian.
+final class OpCode {
+    static final byte CONSTANT = 0;        // [u16 constant]
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;       // [u8 slot]
+    static final byte SET_LOCAL = 6;       // [u8 slot]
+    static final byte GET_GLOBAL = 7;      // [u16 name]
+    static final byte DEFINE_GLOBAL = 8;   // [u16 name]
+    static final byte SET_GLOBAL = 9;      // [u16 name]
+    static final byte GET_UPVALUE = 10;    // [u8 index]
+    static final byte SET_UPVALUE = 11;    // [u8 index]
+    static final byte GET_PROPERTY = 12;   // [u16 name]
+    static final byte SET_PROPERTY = 13;   // [u16 name]
+    static final byte GET_SUPER = 14;      // [u16 name]
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte MODULO = 25;
+    static final byte NOT = 26;
+    static final byte NEGATE = 27;
+    static final byte PRINT = 28;
+    static final byte JUMP = 29;           // [u16 offset]
+    static final byte JUMP_IF_FALSE = 30;  // [u16 offset]
+    static final byte LOOP = 31;           // [u16 offset]
+    static final byte CALL = 32;           // [u8 argc]
+    static final byte INVOKE = 33;         // [u16 name] [u8 argc]
+    static final byte SUPER_INVOKE = 34;   // [u16 name] [u8 argc]
+    static final byte CLOSURE = 35;        // [u16 function] then [u8 isLocal, u8 index] per upvalue
+    static final byte CLOSE_UPVALUE = 36;
+    static final byte RETURN = 37;
+    static final byte CLASS = 38;          // [u16 name]
+    static final byte INHERIT = 39;
+    static final byte METHOD = 40;         // [u16 name]
+
+    private OpCode() {}
+}
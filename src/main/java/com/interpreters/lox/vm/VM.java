@@ -0,0 +1,534 @@
+package com.interpreters.lox.vm;
+
+import com.interpreters.lox.Stmt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stack-based bytecode interpreter. Each call pushes a CallFrame whose slots are a
+// window onto the shared value stack; the dispatch loop keeps the current frame's
+// code, constants and instruction pointer in locals and reloads them on call/return.
+// Lox calls never recurse on the Java stack: the frames and the value stack are
+// arrays on the heap that start small and double as calls nest deeper, so
+// recursion depth is bounded only by the memory they may take.
+public final class VM {
+    public enum InterpretResult {
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR,
+    }
+
+    // the default bound on frames and value stack together, about a million calls deep
+    public static final long DEFAULT_MAX_STACK = 64L << 20;
+    // estimated sizes, a reference slot without compressed oops and a frame with its slot in frames
+    private static final int SLOT_BYTES = 8;
+    private static final int FRAME_BYTES = 32;
+    // slots kept free above a new frame's base, enough for its locals and temporaries
+    private static final int FRAME_SLOTS = 256;
+    // innermost frames printed with a runtime error, deep recursion would print millions
+    private static final int TRACE_FRAMES = 32;
+
+    private static final class CallFrame {
+        ObjClosure closure;
+        int ip;
+        // stack index of slot 0 (the callee or receiver)
+        int base;
+    }
+
+    // raised by helpers and natives, reported with a stack trace by run()
+    static final class Fault extends RuntimeException {
+        Fault(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final long maxStack;
+    private Object[] stack = new Object[64 * FRAME_SLOTS];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private final Map<String, Object> globals = new HashMap<>();
+    // open upvalues sorted by stack slot, highest first
+    private ObjUpvalue openUpvalues = null;
+
+    public VM() {
+        this(DEFAULT_MAX_STACK);
+    }
+
+    // maxStack is in bytes, a call that needs the stacks to grow past it is a stack overflow
+    public VM(long maxStack) {
+        this.maxStack = maxStack;
+        for (int i = 0; i < frames.length; i++) frames[i] = new CallFrame();
+
+        defineNative("clock", 0, (args, start, count) -> (double) System.currentTimeMillis() / 1000.0);
+        defineNative("sum", 124, (args, start, count) -> {
+            double total = 0.0;
+            for (int i = start; i < start + count; i++) {
+                if (!(args[i] instanceof Double number)) throw new Fault(String.format(
+                        "Invalid argument (%s) provided to sum(..)", stringify(args[i])));
+                total += number;
+            }
+            return total;
+        });
+    }
+
+    private void defineNative(String name, int arity, ObjNative.Fn fn) {
+        globals.put(name, new ObjNative(name, arity, fn));
+    }
+
+    public InterpretResult interpret(List<Stmt> statements) {
+        ObjFunction script = Compiler.compile(statements);
+        if (script == null) return InterpretResult.COMPILE_ERROR;
+
+        ObjClosure closure = new ObjClosure(script);
+        push(closure);
+        call(closure, 0);
+        return run();
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private InterpretResult run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.pool;
+        int ip = frame.ip;
+        int base = frame.base;
+        // reloaded after every call, which may have grown it
+        Object[] stack = this.stack;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT -> {
+                        stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                    }
+                    case OpCode.NIL -> stack[sp++] = null;
+                    case OpCode.TRUE -> stack[sp++] = Boolean.TRUE;
+                    case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                    case OpCode.POP -> sp--;
+                    case OpCode.GET_LOCAL -> stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                    case OpCode.SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                    case OpCode.GET_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object value = globals.get(name);
+                        if (value == null && !globals.containsKey(name)) {
+                            throw new Fault("Undefined variable " + name + ".");
+                        }
+                        stack[sp++] = value;
+                    }
+                    case OpCode.DEFINE_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        globals.put(name, stack[--sp]);
+                    }
+                    case OpCode.SET_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if (!globals.containsKey(name)) {
+                            throw new Fault("Undefined variable '" + name + "'.");
+                        }
+                        globals.put(name, stack[sp - 1]);
+                    }
+                    case OpCode.GET_UPVALUE -> {
+                        ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        stack[sp++] = upvalue.isOpen ? stack[upvalue.slot] : upvalue.closed;
+                    }
+                    case OpCode.SET_UPVALUE -> {
+                        ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        if (upvalue.isOpen) {
+                            stack[upvalue.slot] = stack[sp - 1];
+                        } else {
+                            upvalue.closed = stack[sp - 1];
+                        }
+                    }
+                    case OpCode.GET_PROPERTY -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if (!(stack[sp - 1] instanceof ObjInstance instance)) {
+                            throw new Fault("Only instances have properties.");
+                        }
+                        Object value = instance.fields.get(name);
+                        if (value != null || instance.fields.containsKey(name)) {
+                            stack[sp - 1] = value;
+                        } else {
+                            stack[sp - 1] = bindMethod(instance, instance.klass, name);
+                        }
+                    }
+                    case OpCode.SET_PROPERTY -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if (!(stack[sp - 2] instanceof ObjInstance instance)) {
+                            throw new Fault("Only instances have fields.");
+                        }
+                        Object value = stack[--sp];
+                        instance.fields.put(name, value);
+                        stack[sp - 1] = value;
+                    }
+                    case OpCode.GET_SUPER -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClass superclass = (ObjClass) stack[--sp];
+                        stack[sp - 1] = bindMethod(stack[sp - 1], superclass, name);
+                    }
+                    case OpCode.EQUAL -> {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = isEqual(stack[sp - 1], b);
+                    }
+                    case OpCode.NOT_EQUAL -> {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = !isEqual(stack[sp - 1], b);
+                    }
+                    case OpCode.GREATER -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] > b;
+                    }
+                    case OpCode.GREATER_EQUAL -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] >= b;
+                    }
+                    case OpCode.LESS -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] < b;
+                    }
+                    case OpCode.LESS_EQUAL -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] <= b;
+                    }
+                    case OpCode.ADD -> {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = add(stack[sp - 1], b);
+                    }
+                    case OpCode.SUBTRACT -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] - b;
+                    }
+                    case OpCode.MULTIPLY -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] * b;
+                    }
+                    case OpCode.DIVIDE -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] / b;
+                    }
+                    case OpCode.MODULO -> {
+                        checkNumberOperands();
+                        double b = (Double) stack[--sp];
+                        stack[sp - 1] = (Double) stack[sp - 1] % b;
+                    }
+                    case OpCode.NOT -> stack[sp - 1] = isFalsey(stack[sp - 1]);
+                    case OpCode.NEGATE -> {
+                        if (!(stack[sp - 1] instanceof Double number)) {
+                            throw new Fault("Operand must be a number");
+                        }
+                        stack[sp - 1] = -number;
+                    }
+                    case OpCode.PRINT -> System.out.println(stringify(stack[--sp]));
+                    case OpCode.JUMP -> {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 + offset;
+                    }
+                    case OpCode.JUMP_IF_FALSE -> {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (isFalsey(stack[sp - 1])) ip += offset;
+                    }
+                    case OpCode.LOOP -> {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 - offset;
+                    }
+                    case OpCode.CALL -> {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        callValue(stack[sp - 1 - argCount], argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.pool;
+                        ip = frame.ip;
+                        base = frame.base;
+                        stack = this.stack;
+                    }
+                    case OpCode.INVOKE -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        invoke(name, argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.pool;
+                        ip = frame.ip;
+                        base = frame.base;
+                        stack = this.stack;
+                    }
+                    case OpCode.SUPER_INVOKE -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        ObjClass superclass = (ObjClass) stack[--sp];
+                        invokeFromClass(superclass, name, argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.pool;
+                        ip = frame.ip;
+                        base = frame.base;
+                        stack = this.stack;
+                    }
+                    case OpCode.CLOSURE -> {
+                        ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure closure = new ObjClosure(function);
+                        stack[sp++] = closure;
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            closure.upvalues[i] = isLocal
+                                    ? captureUpvalue(base + index)
+                                    : frame.closure.upvalues[index];
+                        }
+                    }
+                    case OpCode.CLOSE_UPVALUE -> {
+                        closeUpvalues(sp - 1);
+                        sp--;
+                    }
+                    case OpCode.RETURN -> {
+                        Object result = stack[--sp];
+                        closeUpvalues(base);
+                        frameCount--;
+                        if (frameCount == 0) {
+                            sp = 0;
+                            return InterpretResult.OK;
+                        }
+                        sp = base;
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.pool;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    case OpCode.CLASS -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        stack[sp++] = new ObjClass(name);
+                    }
+                    case OpCode.INHERIT -> {
+                        if (!(stack[sp - 2] instanceof ObjClass superclass)) {
+                            throw new Fault("Superclass must be class.");
+                        }
+                        ObjClass subclass = (ObjClass) stack[sp - 1];
+                        subclass.methods.putAll(superclass.methods);
+                        subclass.initializer = superclass.initializer;
+                        sp--;
+                    }
+                    case OpCode.METHOD -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure method = (ObjClosure) stack[sp - 1];
+                        ObjClass klass = (ObjClass) stack[sp - 2];
+                        klass.methods.put(name, method);
+                        if (name.equals("init")) klass.initializer = method;
+                        sp--;
+                    }
+                    default -> throw new Fault("Unknown opcode " + code[ip - 1] + ".");
+                }
+            }
+        } catch (Fault fault) {
+            frame.ip = ip;
+            runtimeError(fault.getMessage());
+            return InterpretResult.RUNTIME_ERROR;
+        }
+    }
+
+    // CALLS
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure closure) {
+            call(closure, argCount);
+        } else if (callee instanceof ObjBoundMethod bound) {
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof ObjClass klass) {
+            stack[sp - argCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw new Fault("Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof ObjNative function) {
+            if (argCount != function.arity) {
+                throw new Fault("Expected " + function.arity + " arguments but got " + argCount + ".");
+            }
+            Object result = function.fn.call(stack, sp - argCount, argCount);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new Fault("Can only call functions and classes");
+        }
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw new Fault("Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+        }
+        if (frameCount == frames.length || sp + FRAME_SLOTS > stack.length) grow();
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    // Doubles whichever of frames and stack is full, or takes what is left of
+    // maxStack when doubling would pass it.
+    private void grow() {
+        if (frameCount == frames.length) {
+            long room = (maxStack - (long) stack.length * SLOT_BYTES) / FRAME_BYTES;
+            int length = (int) Math.min(Math.min((long) frames.length * 2, room), Integer.MAX_VALUE - 8);
+            if (length <= frameCount) throw new Fault("Stack overflow.");
+            CallFrame[] grown = Arrays.copyOf(frames, length);
+            for (int i = frames.length; i < length; i++) grown[i] = new CallFrame();
+            frames = grown;
+        }
+        if (sp + FRAME_SLOTS > stack.length) {
+            long room = (maxStack - (long) frames.length * FRAME_BYTES) / SLOT_BYTES;
+            int length = (int) Math.min(Math.min((long) stack.length * 2, room), Integer.MAX_VALUE - 8);
+            if (length < sp + FRAME_SLOTS) throw new Fault("Stack overflow.");
+            stack = Arrays.copyOf(stack, length);
+        }
+    }
+
+    private void invoke(String name, int argCount) {
+        if (!(peek(argCount) instanceof ObjInstance instance)) {
+            throw new Fault("Only instances have properties.");
+        }
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[sp - argCount - 1] = field;
+            callValue(field, argCount);
+            return;
+        }
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(ObjClass klass, String name, int argCount) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new Fault("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private ObjBoundMethod bindMethod(Object receiver, ObjClass klass, String name) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new Fault("Undefined property '" + name + "'.");
+        }
+        return new ObjBoundMethod(receiver, method);
+    }
+
+    // UPVALUES
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    // VALUES
+
+    private void checkNumberOperands() {
+        if (stack[sp - 1] instanceof Double && stack[sp - 2] instanceof Double) return;
+        throw new Fault("Operands must be numbers");
+    }
+
+    private Object add(Object left, Object right) {
+        if (left instanceof Double a && right instanceof Double b) return a + b;
+        if (left instanceof String a && right instanceof String b) return a + b;
+        // support instance where S + N or  N + S
+        if (left instanceof String a && right instanceof Double) return a + stringify(right);
+        if (left instanceof Double && right instanceof String b) return stringify(left) + b;
+        throw new Fault("Operands must be two numbers or two strings");
+    }
+
+    private static boolean isFalsey(Object value) {
+        return value == null || (value instanceof Boolean bool && !bool);
+    }
+
+    private static boolean isEqual(Object left, Object right) {
+        if (left == null) return right == null;
+        return left.equals(right);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2); // truncate for whole number
+            }
+            return text;
+        }
+        return object.toString();
+    }
+
+    private void runtimeError(String message) {
+        System.err.println(message);
+        for (int i = frameCount - 1; i >= 0; i--) {
+            if (i == frameCount - 1 - TRACE_FRAMES && i > 0) {
+                System.err.println("[" + i + " more frames]");
+                i = 0;
+            }
+            CallFrame frame = frames[i];
+            ObjFunction function = frame.closure.function;
+            int line = function.chunk.lines[Math.max(frame.ip - 1, 0)];
+            String where = function.name == null ? "script" : function.name + "()";
+            System.err.println("[line " + line + "] in " + where);
+        }
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+}
@@ -18,21 +18,23 @@ public class GenerateAst {
         outputFileName.put("Expr","/Expr.java");
     }
 
+    // "Name : constructor fields | mutable fields" where the optional mutable
+    // fields are filled in after parsing (e.g. by the Resolver)
     static {
         astMap.put("Expr", List.of(
-            "Binary     : Expr left, Token operator, Expr right",
+            "Binary     : Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
             "Call       : Expr callee, Token paren, List<Expr> arguments",
             "Grouping   : Expr expression",
-            "Get        : Expr object, Token name",
-            "Set        : Expr object, Token name, Expr value",
-            "Super      : Token keyword, Token method",
-            "This       : Token keyword",
+            "Get        : Expr object, Token name | InlineCache cache = new InlineCache()",
+            "Set        : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+            "Super      : Token keyword, Token method | int depth = -1, int thisDepth = -1, InlineCache cache = new InlineCache()",
+            "This       : Token keyword | int depth = -1, int slot = -1",
             "Literal    : Object value",
             "Logical    : Expr left, Token operator, Expr right",
             "Unary      : Token operator, Expr right",
             "Ternary    : Expr expression, Token question_mark, Expr truth_side, Token colon_operator, Expr false_side",
-            "Variable   : Token name",
-            "Assign     : Token name, Expr right"
+            "Variable   : Token name | int depth = -1, int slot = -1",
+            "Assign     : Token name, Expr right | int depth = -1, int slot = -1"
         ));
 
         astMap.put("Stmt",List.of(
@@ -42,8 +44,8 @@ public class GenerateAst {
             "Block      : List<Stmt> statements",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "While      : Expr condition, Stmt body",
-            "Function   : Token functionName, List<Token> parameters, List<Stmt> body",
-            "Return     : Token keyword, Expr value",
+            "Function   : Token functionName, List<Token> parameters, List<Stmt> body | int calls = 0, Jit.Code jitted",
+            "Return     : Token keyword, Expr value | boolean tail = false",
             "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods"
         ));
     }
@@ -96,23 +98,26 @@ public class GenerateAst {
             writer.println();
             writer.println("import java.util.List;");
             writer.println();
-            writer.printf("abstract class %s {\n", baseName);
+            writer.printf("public abstract class %s {\n", baseName);
             defineVisitor(writer,baseName,types);
             for (String type: types) {
                 String[] components = type.split(":");
                 String className = components[0].trim();
-                String fields = components[1].trim();
-                defineType(writer, baseName, className,fields);
+                String[] sections = components[1].split("\\|");
+                String fields = sections[0].trim();
+                String mutableFields = sections.length > 1 ? sections[1].trim() : "";
+                defineType(writer, baseName, className,fields, mutableFields);
             }
 
             writer.println();
-            writer.println(" abstract <R> R accept(Visitor<R> visitor);");
+            writer.println(" public abstract <R> R accept(Visitor<R> visitor);");
             writer.println("}");
         }
     }
 
-    public  static void defineType(PrintWriter writer, String baseName, String className, String fieldList){
-        writer.printf(" static class %s extends %s {\n",className,baseName);
+    public  static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String mutableFieldList){
+        writer.printf(" public static class %s extends %s {\n",className,baseName);
         writer.printf("     %s (%s){\n",className,fieldList);
         String[] fields = fieldList.split(", ");
         List<String> types = new ArrayList<>();
@@ -130,13 +135,18 @@ public class GenerateAst {
         writer.println("    }");
         int idx = 0;
         for (@SuppressWarnings("unused")String field :  fields) {
-            writer.printf("     final %s %s;\n",types.get(idx),paramNames.get(idx));
+            writer.printf("     public final %s %s;\n",types.get(idx),paramNames.get(idx));
             idx+=1;
         }
+        if (!mutableFieldList.isEmpty()) {
+            for (String field : mutableFieldList.split(", ")) {
+                writer.printf("     %s;\n", field.trim());
+            }
+        }
 
         writer.println();
         writer.println(" @Override");
-        writer.println(" <R> R accept(Visitor<R> visitor) {");
+        writer.println(" public <R> R accept(Visitor<R> visitor) {");
         writer.println(" return visitor.visit" +
                 className + baseName + "(this);");
         writer.println(" }");
@@ -144,7 +154,7 @@ public class GenerateAst {
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println(" interface Visitor<R> {");
+        writer.println(" public interface Visitor<R> {");
         for (String type : types) {
             String typeName = type.split(":")[0].trim();
             writer.println(" R visit" + typeName + baseName + "(" +